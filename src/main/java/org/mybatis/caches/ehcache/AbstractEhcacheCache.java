@@ -15,39 +15,90 @@
  */
 package org.mybatis.caches.ehcache;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.ReadWriteLock;
 
+import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.Cache;
-import org.ehcache.Cache.Entry;
 import org.ehcache.PersistentCacheManager;
+import org.ehcache.Cache.Entry;
+import org.ehcache.config.EvictionAdvisor;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
-import org.ehcache.config.builders.CacheManagerBuilder;
-import org.ehcache.config.builders.ExpiryPolicyBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.ehcache.config.units.EntryUnit;
 import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.event.EventType;
+import org.ehcache.impl.config.store.disk.OffHeapDiskStoreConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Cache adapter for Ehcache 3.
+ * <p>
+ * When configured by MyBatis, all the {@code <cache>} properties are applied first and the underlying Ehcache 3 cache
+ * is then built exactly once by {@link #initialize()}. Instances created programmatically build the cache on first use
+ * instead.
+ * </p>
  *
  * @author Simone Tripodi
  */
-public abstract class AbstractEhcacheCache implements Cache {
+public abstract class AbstractEhcacheCache implements Cache, InitializingObject {
+
+  private static final Logger log = LoggerFactory.getLogger(AbstractEhcacheCache.class);
 
   /** Placeholder stored in Ehcache 3 for entries whose actual value is {@code null}. */
   private static final Object NULL_VALUE = new NullValue();
 
+  /** Placeholder stored in Ehcache 3 for entries whose actual value is an empty {@link ArrayList}. */
+  private static final Object EMPTY_LIST_VALUE = new EmptyListValue();
+
+  /** Suffix of the alias of the cache holding negative (null or empty) results, if configured. */
+  private static final String NEGATIVE_SUFFIX = "#negative";
+
+  /** Separator between the cache id and the shard index in the alias of the additional shards. */
+  private static final String SHARD_SEPARATOR = "#shard-";
+
+  /** Upper bound of outstanding cache misses tracked to measure load costs; the tracking is reset when reached. */
+  private static final int MAX_PENDING_LOADS = 10_000;
+
+  /** Duration during which puts are checked against the pending loads dropped by a reset of their tracking. */
+  private static final long LOST_LOADS_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  /** Number of key stripes whose last removal is versioned, to detect stale puts. */
+  private static final int REMOVAL_STRIPES = 256;
+
   /**
-   * The cache manager reference. A {@link PersistentCacheManager} is used so that individual caches may optionally
-   * configure a disk tier via {@link #setMaxBytesLocalDisk(long)}.
+   * The cache manager reference.
+   *
+   * @deprecated caches are now registered with lazily created managers, a heap-only one and, only when a cache
+   *             configures {@link #setMaxBytesLocalDisk(long)}, a persistent one. This field is kept for compatibility
+   *             and delegates to them; assigning it has no effect.
    */
-  protected static PersistentCacheManager CACHE_MANAGER = CacheManagerBuilder.newCacheManagerBuilder()
-      .with(
-          CacheManagerBuilder.persistence(Path.of(System.getProperty("java.io.tmpdir"), "ehcache-mybatis").toString()))
-      .build(true);
+  @Deprecated
+  protected static PersistentCacheManager CACHE_MANAGER = CacheManagers.legacyManager();
 
   /**
    * The cache id (namespace).
@@ -55,9 +106,15 @@ public abstract class AbstractEhcacheCache implements Cache {
   protected final String id;
 
   /**
-   * The cache instance (lazily initialised on first use).
+   * The cache instance (lazily initialised on first use). When the namespace is sharded, this is the first shard.
+   */
+  protected volatile org.ehcache.Cache<Object, Object> cache;
+
+  /**
+   * All the shards of the namespace, {@link #cache} being the first one. Replaced as a whole whenever the cache is
+   * (re)built.
    */
-  protected org.ehcache.Cache<Object, Object> cache;
+  private volatile List<org.ehcache.Cache<Object, Object>> shardCaches = Collections.emptyList();
 
   protected long timeToIdleSeconds;
   protected long timeToLiveSeconds;
@@ -65,6 +122,146 @@ public abstract class AbstractEhcacheCache implements Cache {
   protected long maxEntriesLocalDisk;
   protected long maxBytesLocalDisk;
   protected String memoryStoreEvictionPolicy;
+  protected long expensiveLoadMillis;
+  protected long expensiveTimeToLiveSeconds;
+  protected boolean shrinkOnMemoryPressure;
+  protected int shards = 1;
+  protected long diskLatencyBudgetMillis;
+  protected int diskFailureThreshold = 5;
+  protected long diskFailureWindowMillis = 10_000;
+  protected long diskRecoveryMillis = 30_000;
+  protected long maxEntryBytes;
+  protected int maxCollectionSize;
+  protected String admittedStatements;
+  protected String rejectedStatements;
+  protected long negativeTimeToLiveSeconds;
+  protected long maxNegativeEntries;
+  protected long expirySweepIntervalMillis;
+  protected int expirySweepBatchSize = 1000;
+  protected long expirySweepBudgetMillis = 5;
+  protected String valueCopy;
+  protected String traceFile;
+  protected double traceSampleRate = 0.01;
+  protected boolean rejectStalePuts;
+  protected int burstClearThreshold;
+  protected long burstSuspendMillis = 10_000;
+  protected int hotKeyCount;
+  protected int hotKeySampleInterval = 16;
+  protected String statementTimeToLive;
+  protected String statementWeights;
+  protected String heapPromotion;
+  protected String heapPromotionExcludedStatements;
+  protected int diskSegments = OffHeapDiskStoreConfiguration.DEFAULT_DISK_SEGMENTS;
+  protected int diskWriterConcurrency = OffHeapDiskStoreConfiguration.DEFAULT_WRITER_CONCURRENCY;
+  protected String listeners;
+  protected String listenerOrdering;
+  protected String listenerFiring;
+  protected int listenerQueueSize = 10_000;
+  protected long footprintIntervalMillis;
+  protected int footprintSampleInterval = 16;
+
+  private boolean orderedEvents;
+  private boolean synchronousEvents;
+
+  private boolean secondAccessPromotion;
+
+  private ResultCopier.Mode valueCopyMode = ResultCopier.Mode.NONE;
+
+  /** Background estimator of the memory footprint, when {@link #footprintIntervalMillis} is set. */
+  private volatile FootprintAnalyzer footprintAnalyzer;
+
+  /** Background sweeper purging expired entries, when {@link #expirySweepIntervalMillis} is set. */
+  private volatile ExpirySweeper expirySweeper;
+
+  /** The listeners of the namespace. */
+  private final List<CacheEntryListener> entryListeners = new CopyOnWriteArrayList<>();
+
+  /** The listeners created from the {@link #listeners} property. */
+  private List<CacheEntryListener> propertyListeners = Collections.emptyList();
+
+  /** Relays the events of the shards to the listeners; {@code null} while there is no listener. */
+  private volatile CacheEventDispatcher eventDispatcher;
+
+  /** Executor of the asynchronous operations, or {@code null} for the {@link AsyncExecutors#defaultExecutor()}. */
+  private volatile Executor asyncExecutor;
+
+  /** Tracker of the most frequently accessed keys, when {@link #hotKeyCount} is set. */
+  private volatile HotKeyTracker hotKeyTracker;
+
+  /** Recorder of the access trace, when {@link #traceFile} is set. */
+  private volatile AccessTraceRecorder traceRecorder;
+
+  /** Heap-only cache holding negative results when {@link #maxNegativeEntries} is set, {@code null} otherwise. */
+  private volatile org.ehcache.Cache<Object, Object> negativeCache;
+
+  private volatile StatementMatcher admittedStatementMatcher;
+  private volatile StatementMatcher rejectedStatementMatcher;
+  private volatile StatementRules statementTimeToLiveRules;
+  private volatile StatementRules statementWeightRules;
+  private volatile StatementMatcher promotionExcludedMatcher;
+
+  /** Sketch counting the lookups of the namespace when {@link #heapPromotion} is {@code secondAccess}. */
+  private volatile FrequencySketch accessSketch;
+
+  /** Measured load costs of the entries when {@link #expensiveLoadMillis} is set. */
+  private volatile LoadCostTable loadCosts;
+
+  /** Circuit breaker guarding reads and writes when a disk tier and a latency budget are configured. */
+  private volatile DiskTierCircuitBreaker diskBreaker;
+
+  /** Factor applied to the heap tier size, lowered by the {@link MemoryPressureMonitor} under pressure. */
+  private double heapScale = 1.0;
+
+  /**
+   * Heap tier size, in entries, granted by the {@link GlobalHeapBudget} when {@link #maxEntriesLocalHeap} is not set; 0
+   * when the cache does not take part in the global budget.
+   */
+  private long heapBudgetEntries;
+
+  private final EhcacheStatistics statistics = new EhcacheStatistics();
+
+  /**
+   * The loads following a cache miss, per key and reading thread, used to measure the cost of the value put afterwards
+   * and to detect puts of values read before an invalidation. Only populated when
+   * {@link #setExpensiveLoadMillis(long)} or {@link #setRejectStalePuts(boolean)} is set.
+   */
+  private final Map<PendingKey, PendingLoad> pendingLoads = new ConcurrentHashMap<>();
+
+  /** Source of the versions of the invalidations of the namespace, incremented by each clear and removal. */
+  private final AtomicLong invalidations = new AtomicLong();
+
+  /** Version of the last {@link #clear()}. */
+  private final AtomicLong clearVersion = new AtomicLong();
+
+  /** Oldest invalidation version of the pending loads dropped by the last reset of their tracking. */
+  private volatile long lostLoadsVersion;
+
+  /**
+   * Time, in nanoseconds, until which puts without a pending load are checked against {@link #lostLoadsVersion}; 0 if
+   * the tracking of pending loads was never reset.
+   */
+  private volatile long lostLoadsUntilNanos;
+
+  /** Version of the last removal of a key, per stripe of the key space. */
+  private final AtomicLongArray removalVersions = new AtomicLongArray(REMOVAL_STRIPES);
+
+  /** Serialises the clears of the namespace and guards the clear sequence numbers and the write burst state. */
+  private final Object clearLock = new Object();
+
+  /** Sequence number of the last clear requested. */
+  private final AtomicLong clearsRequested = new AtomicLong();
+
+  /** Sequence number of the last clear request covered by a completed clear. */
+  private long clearsCompleted;
+
+  /** Start time, in nanoseconds, of the current one-second window counting clears to detect write bursts. */
+  private long burstWindowStart;
+
+  /** Number of clears in the current write burst detection window. */
+  private int burstWindowClears;
+
+  /** Time, in nanoseconds, at which caching resumes after a write burst; 0 when caching is not suspended. */
+  private volatile long suspendedUntilNanos;
 
   /**
    * Instantiates a new abstract ehcache cache.
@@ -78,216 +275,1937 @@ public abstract class AbstractEhcacheCache implements Cache {
     }
     this.id = id;
     // Remove any pre-existing cache so this instance always starts with a fresh default configuration.
-    if (CACHE_MANAGER.getCache(id, Object.class, Object.class) != null) {
-      CACHE_MANAGER.removeCache(id);
+    CacheManagers.removeCache(id);
+    AccessTraceRecorder.stop(id);
+  }
+
+  /**
+   * Validates the configuration and builds the underlying Ehcache 3 cache. Called by MyBatis once all the properties of
+   * the {@code <cache>} element have been set, so that the cache is built exactly once rather than on first use.
+   *
+   * @throws IllegalArgumentException
+   *           if a property has an invalid value
+   */
+  @Override
+  public void initialize() {
+    requireNonNegative("timeToIdleSeconds", timeToIdleSeconds);
+    requireNonNegative("timeToLiveSeconds", timeToLiveSeconds);
+    requireNonNegative("maxEntriesLocalHeap", maxEntriesLocalHeap);
+    requireNonNegative("maxEntriesLocalDisk", maxEntriesLocalDisk);
+    requireNonNegative("maxBytesLocalDisk", maxBytesLocalDisk);
+    requireNonNegative("expensiveLoadMillis", expensiveLoadMillis);
+    requireNonNegative("expensiveTimeToLiveSeconds", expensiveTimeToLiveSeconds);
+    requireNonNegative("diskLatencyBudgetMillis", diskLatencyBudgetMillis);
+    requireNonNegative("diskRecoveryMillis", diskRecoveryMillis);
+    requireNonNegative("diskFailureWindowMillis", diskFailureWindowMillis);
+    requireNonNegative("maxEntryBytes", maxEntryBytes);
+    requireNonNegative("maxCollectionSize", maxCollectionSize);
+    requireNonNegative("negativeTimeToLiveSeconds", negativeTimeToLiveSeconds);
+    requireNonNegative("maxNegativeEntries", maxNegativeEntries);
+    if (diskSegments < 1 || diskWriterConcurrency < 1 || diskWriterConcurrency > diskSegments) {
+      throw new IllegalArgumentException("Properties 'diskSegments' and 'diskWriterConcurrency' of cache " + id
+          + " must be positive, with at most one writer per segment, but were " + diskSegments + " and "
+          + diskWriterConcurrency);
+    }
+    getOrCreateShards();
+  }
+
+  private void requireNonNegative(String property, long value) {
+    if (value < 0) {
+      throw new IllegalArgumentException(
+          "Property '" + property + "' of cache " + id + " must not be negative but was " + value);
     }
   }
 
   /**
    * Returns the underlying Ehcache 3 cache, creating it on first use with the current configuration.
    */
-  protected synchronized org.ehcache.Cache<Object, Object> getOrCreateCache() {
-    if (cache == null) {
-      cache = buildAndRegisterCache();
+  protected org.ehcache.Cache<Object, Object> getOrCreateCache() {
+    return getOrCreateShards().get(0);
+  }
+
+  /**
+   * Returns all the shards of the namespace, creating them on first use with the current configuration. Once built,
+   * the shards are read without locking.
+   */
+  private List<org.ehcache.Cache<Object, Object>> getOrCreateShards() {
+    List<org.ehcache.Cache<Object, Object>> currentShards = shardCaches;
+    if (currentShards.isEmpty()) {
+      synchronized (this) {
+        if (cache == null) {
+          buildShards();
+        }
+        currentShards = shardCaches;
+      }
+    }
+    return currentShards;
+  }
+
+  /**
+   * Returns the shard owning {@code key}, creating the shards on first use.
+   */
+  private org.ehcache.Cache<Object, Object> shardFor(HashKeyWrapper key) {
+    List<org.ehcache.Cache<Object, Object>> currentShards = getOrCreateShards();
+    int size = currentShards.size();
+    if (size == 1) {
+      return currentShards.get(0);
+    }
+    // Multiply-shift range reduction: routes on the high bits of the mixed hash, leaving the low bits, which Ehcache
+    // uses for its own hash buckets, evenly spread within each shard.
+    return currentShards.get((int) (((key.hashCode() & 0xFFFFFFFFL) * size) >>> 32));
+  }
+
+  /**
+   * Builds and registers all the shards of the namespace, removing any shard left over from a previous configuration
+   * with more shards.
+   */
+  private void buildShards() {
+    if (maxEntriesLocalHeap <= 0 && GlobalHeapBudget.isEnabled()) {
+      if (heapBudgetEntries == 0) {
+        heapBudgetEntries = GlobalHeapBudget.register(this);
+      }
+    } else if (heapBudgetEntries > 0) {
+      GlobalHeapBudget.unregister(this);
+      heapBudgetEntries = 0;
+    }
+    accessSketch = secondAccessPromotion ? new FrequencySketch(heapSlots()) : null;
+    loadCosts = expensiveLoadMillis > 0 ? new LoadCostTable(2 * heapSlots()) : null;
+    List<org.ehcache.Cache<Object, Object>> built = new ArrayList<>(shards);
+    built.add(buildAndRegisterCache());
+    for (int i = 1; i < shards; i++) {
+      built.add(buildAndRegisterCache(id + SHARD_SEPARATOR + i));
+    }
+    for (int i = shards; CacheManagers.getCache(id + SHARD_SEPARATOR + i) != null; i++) {
+      CacheManagers.removeCache(id + SHARD_SEPARATOR + i);
+    }
+    negativeCache = maxNegativeEntries > 0 ? buildAndRegisterNegativeCache() : null;
+    if (negativeCache == null) {
+      CacheManagers.removeCache(id + NEGATIVE_SUFFIX);
+    }
+    shardCaches = built;
+    cache = built.get(0);
+    updateDiskBreaker();
+    if (eventDispatcher != null) {
+      registerEventDispatcher(built);
+    }
+  }
+
+  /**
+   * Builds and registers the heap-only cache holding the negative results of the namespace, so that they have their own
+   * capacity and never crowd out real data.
+   */
+  private org.ehcache.Cache<Object, Object> buildAndRegisterNegativeCache() {
+    String alias = id + NEGATIVE_SUFFIX;
+    CacheManagers.removeCache(alias);
+    CacheConfigurationBuilder<Object, Object> builder = CacheConfigurationBuilder
+        .newCacheConfigurationBuilder(Object.class, Object.class,
+            ResourcePoolsBuilder.newResourcePoolsBuilder().heap(maxNegativeEntries, EntryUnit.ENTRIES))
+        .withExpiry(new EntryExpiryPolicy(timeToLiveSeconds, timeToIdleSeconds));
+    return CacheManagers.get(false).createCache(alias, builder.build());
+  }
+
+  private void registerEventDispatcher(List<org.ehcache.Cache<Object, Object>> shards) {
+    for (org.ehcache.Cache<Object, Object> shard : shards) {
+      shard.getRuntimeConfiguration().registerCacheEventListener(eventDispatcher,
+          orderedEvents ? EventOrdering.ORDERED : EventOrdering.UNORDERED, EventFiring.SYNCHRONOUS,
+          EnumSet.allOf(EventType.class));
+    }
+  }
+
+  /**
+   * Replaces the event dispatcher after a change of the listeners or of their configuration. The dispatcher only exists
+   * while there are listeners.
+   */
+  private synchronized void updateEventDispatcher() {
+    CacheEventDispatcher previous = eventDispatcher;
+    if (previous != null) {
+      if (cache != null) {
+        for (org.ehcache.Cache<Object, Object> shard : shardCaches) {
+          shard.getRuntimeConfiguration().deregisterCacheEventListener(previous);
+        }
+      }
+      previous.close();
     }
-    return cache;
+    eventDispatcher = entryListeners.isEmpty() ? null
+        : new CacheEventDispatcher(id, entryListeners, AbstractEhcacheCache::fromStored, statistics,
+            synchronousEvents ? 0 : listenerQueueSize);
+    if (eventDispatcher != null && cache != null) {
+      registerEventDispatcher(shardCaches);
+    }
+  }
+
+  private void updateDiskBreaker() {
+    diskBreaker = maxBytesLocalDisk > 0 && diskLatencyBudgetMillis > 0 ? new DiskTierCircuitBreaker(
+        diskLatencyBudgetMillis, diskFailureThreshold, diskFailureWindowMillis, diskRecoveryMillis, statistics) : null;
   }
 
   /**
    * Builds and registers a new Ehcache 3 cache instance using the current configuration fields.
    */
   protected org.ehcache.Cache<Object, Object> buildAndRegisterCache() {
-    if (CACHE_MANAGER.getCache(id, Object.class, Object.class) != null) {
-      CACHE_MANAGER.removeCache(id);
-    }
-    long heapEntries = maxEntriesLocalHeap > 0 ? maxEntriesLocalHeap : Long.MAX_VALUE / 2;
-    ResourcePoolsBuilder poolsBuilder = ResourcePoolsBuilder.newResourcePoolsBuilder().heap(heapEntries,
+    return buildAndRegisterCache(id);
+  }
+
+  /**
+   * Builds and registers a new Ehcache 3 cache instance under the given alias using the current configuration fields.
+   * When the namespace is sharded, the heap and disk sizes are split evenly among the shards. Caches with a disk tier
+   * are registered with the persistent cache manager, which is only created on first use; heap-only caches never touch
+   * the file system.
+   *
+   * @param alias
+   *          the alias of the cache in the cache manager
+   *
+   * @return the registered cache
+   */
+  protected org.ehcache.Cache<Object, Object> buildAndRegisterCache(String alias) {
+    CacheManagers.removeCache(alias);
+    ResourcePoolsBuilder poolsBuilder = ResourcePoolsBuilder.newResourcePoolsBuilder().heap(effectiveHeapEntries(),
         EntryUnit.ENTRIES);
     if (maxBytesLocalDisk > 0) {
-      poolsBuilder = poolsBuilder.disk(maxBytesLocalDisk, MemoryUnit.B);
+      poolsBuilder = poolsBuilder.disk(Math.max(1, maxBytesLocalDisk / shards), MemoryUnit.B);
     }
     CacheConfigurationBuilder<Object, Object> builder = CacheConfigurationBuilder
-        .newCacheConfigurationBuilder(Object.class, Object.class, poolsBuilder).withExpiry(buildExpiryPolicy());
+        .newCacheConfigurationBuilder(Object.class, Object.class, poolsBuilder)
+        .withExpiry(new EntryExpiryPolicy(timeToLiveSeconds, timeToIdleSeconds));
+    LoadCostTable costs = loadCosts;
+    EvictionAdvisor<Object, Object> advisor = costs != null ? new CostAwareEvictionAdvisor(costs, expensiveLoadMillis)
+        : null;
+    FrequencySketch sketch = accessSketch;
+    if (sketch != null) {
+      EvictionAdvisor<Object, Object> frequencyAdvisor = new AccessFrequencyEvictionAdvisor(sketch,
+          promotionExcludedMatcher);
+      EvictionAdvisor<Object, Object> costAdvisor = advisor;
+      advisor = costAdvisor == null ? frequencyAdvisor
+          : (key, value) -> costAdvisor.adviseAgainstEviction(key, value)
+              || frequencyAdvisor.adviseAgainstEviction(key, value);
+    }
+    if (advisor != null) {
+      builder = builder.withEvictionAdvisor(advisor);
+    }
+    if (valueCopyMode != ResultCopier.Mode.NONE) {
+      builder = builder.withValueCopier(new ResultCopier(valueCopyMode));
+    }
     if (maxBytesLocalDisk > 0) {
       // Disk and off-heap tiers require a Serializer since entries cannot be stored as object references.
       // ObjectSerializer uses standard Java serialisation; cached values must implement Serializable.
-      builder = builder.withKeySerializer(ObjectSerializer.class).withValueSerializer(ObjectSerializer.class);
+      builder = builder.withKeySerializer(ObjectSerializer.class).withValueSerializer(ObjectSerializer.class)
+          .withService(new OffHeapDiskStoreConfiguration(null, diskWriterConcurrency, diskSegments));
     }
-    CACHE_MANAGER.createCache(id, builder.build());
-    return CACHE_MANAGER.getCache(id, Object.class, Object.class);
+    return CacheManagers.get(maxBytesLocalDisk > 0).createCache(alias, builder.build());
   }
 
-  private org.ehcache.expiry.ExpiryPolicy<Object, Object> buildExpiryPolicy() {
-    if (timeToLiveSeconds > 0) {
-      return ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofSeconds(timeToLiveSeconds));
-    }
-    if (timeToIdleSeconds > 0) {
-      return ExpiryPolicyBuilder.timeToIdleExpiration(Duration.ofSeconds(timeToIdleSeconds));
-    }
-    return ExpiryPolicyBuilder.noExpiration();
+  /**
+   * Returns the number of slots of the structures tracking the heap entries, such as the counters per row of the lookup
+   * frequency sketch: about one per heap entry, within bounds.
+   */
+  private int heapSlots() {
+    long heapEntries = maxEntriesLocalHeap > 0 ? maxEntriesLocalHeap : heapBudgetEntries;
+    return (int) Math.min(1 << 20, Math.max(1024, heapEntries));
   }
 
-  @Override
-  public void clear() {
-    getOrCreateCache().clear();
+  /**
+   * Returns the heap tier size of each shard, in entries, with the current heap scale applied.
+   */
+  private long effectiveHeapEntries() {
+    long heapEntries = maxEntriesLocalHeap > 0 ? maxEntriesLocalHeap : heapBudgetEntries;
+    if (heapEntries <= 0) {
+      return Long.MAX_VALUE / 2;
+    }
+    return Math.max(1, (long) Math.ceil(heapEntries * heapScale / shards));
   }
 
-  @Override
-  public String getId() {
-    return id;
+  /**
+   * Resizes the heap tier to {@code heapScale} times its configured or budgeted size, without recreating the cache. Has
+   * no effect on the size of an unbounded heap tier.
+   *
+   * @param heapScale
+   *          the factor to apply, 1.0 restoring the full size
+   */
+  synchronized void applyHeapScale(double heapScale) {
+    this.heapScale = heapScale;
+    resizeHeap();
   }
 
-  @Override
-  public Object getObject(Object key) {
-    Object value = getOrCreateCache().get(new HashKeyWrapper(key));
-    return value instanceof NullValue ? null : value;
+  /**
+   * Resizes the heap tier to the share of the {@link GlobalHeapBudget} granted to this cache, without recreating the
+   * cache. Ignored once {@link #maxEntriesLocalHeap} is set.
+   *
+   * @param heapBudgetEntries
+   *          the granted heap size, in entries
+   */
+  synchronized void applyHeapBudget(long heapBudgetEntries) {
+    if (this.heapBudgetEntries > 0) {
+      this.heapBudgetEntries = heapBudgetEntries;
+      resizeHeap();
+    }
   }
 
-  @Override
-  public int getSize() {
-    int size = 0;
-    for (@SuppressWarnings("unused") Entry<Object, Object> entry : getOrCreateCache()) {
-      size++;
+  private void resizeHeap() {
+    if (cache != null && (maxEntriesLocalHeap > 0 || heapBudgetEntries > 0)) {
+      for (org.ehcache.Cache<Object, Object> shard : shardCaches) {
+        shard.getRuntimeConfiguration().updateResourcePools(
+            ResourcePoolsBuilder.newResourcePoolsBuilder().heap(effectiveHeapEntries(), EntryUnit.ENTRIES).build());
+      }
     }
-    return size;
   }
 
   @Override
-  public void putObject(Object key, Object value) {
-    getOrCreateCache().put(new HashKeyWrapper(key), value == null ? NULL_VALUE : value);
+  public void clear() {
+    // Versioned before clearing, so that values read before the clear are rejected once it has happened
+    clearVersion.accumulateAndGet(invalidations.incrementAndGet(), Math::max);
+    long request = clearsRequested.incrementAndGet();
+    synchronized (clearLock) {
+      long now = CacheClock.nanoTime();
+      if (suspendedUntilNanos != 0 && now - suspendedUntilNanos >= 0) {
+        // The suspension has elapsed with no get or put to lift it: this clear is not part of the burst
+        resumeCaching(false);
+      }
+      if (suspendedUntilNanos != 0) {
+        // Nothing is cached while suspended: extend the suspension instead of clearing
+        suspendedUntilNanos = now + TimeUnit.MILLISECONDS.toNanos(burstSuspendMillis);
+        clearsCompleted = clearsRequested.get();
+        statistics.recordCoalescedClear();
+      } else if (clearsCompleted >= request) {
+        // A clear started after this one was requested, and has completed meanwhile
+        statistics.recordCoalescedClear();
+      } else {
+        if (burstClearThreshold > 0 && isWriteBurst(now)) {
+          suspendedUntilNanos = now + TimeUnit.MILLISECONDS.toNanos(burstSuspendMillis);
+          statistics.recordBurstSuspension();
+          log.debug("Suspending cache {} during a write burst", id);
+        }
+        long covered = clearsRequested.get();
+        clearEntries();
+        clearsCompleted = covered;
+      }
+    }
+    AccessTraceRecorder recorder = traceRecorder;
+    if (recorder != null) {
+      recorder.record(AccessTraceRecorder.CLEAR, 0);
+    }
+    // Ehcache 3 fires no event on clear
+    CacheEventDispatcher dispatcher = eventDispatcher;
+    if (dispatcher != null) {
+      dispatcher.onClear();
+    }
   }
 
-  @Override
-  public Object removeObject(Object key) {
-    Object obj = getObject(key);
-    getOrCreateCache().remove(new HashKeyWrapper(key));
-    return obj;
+  /**
+   * Counts a clear in the write burst detection window, returning whether the burst threshold has been reached.
+   */
+  private boolean isWriteBurst(long now) {
+    if (now - burstWindowStart > TimeUnit.SECONDS.toNanos(1)) {
+      burstWindowStart = now;
+      burstWindowClears = 0;
+    }
+    return ++burstWindowClears >= burstClearThreshold;
   }
 
-  @Override
-  public boolean equals(Object obj) {
-    if (this == obj) {
+  /**
+   * Returns whether caching is suspended during a write burst. Once the suspension has elapsed, the entries that may
+   * have been written by puts racing with its start are cleared before caching resumes.
+   */
+  private boolean isSuspended() {
+    long until = suspendedUntilNanos;
+    if (until == 0) {
+      return false;
+    }
+    if (CacheClock.nanoTime() - until < 0) {
       return true;
     }
-    if (obj == null) {
-      return false;
+    synchronized (clearLock) {
+      if (suspendedUntilNanos != 0 && CacheClock.nanoTime() - suspendedUntilNanos >= 0) {
+        resumeCaching(true);
+      }
+      return suspendedUntilNanos != 0;
     }
-    if (!(obj instanceof Cache)) {
-      return false;
+  }
+
+  /**
+   * Lifts an elapsed suspension, clearing the entries written by puts racing with its start unless the caller is about
+   * to clear them. Must be called while holding {@link #clearLock}.
+   */
+  private void resumeCaching(boolean clear) {
+    if (clear) {
+      clearEntries();
+      clearsCompleted = clearsRequested.get();
     }
+    burstWindowClears = 0;
+    suspendedUntilNanos = 0;
+    log.debug("Resuming cache {} after a write burst", id);
+  }
 
-    Cache otherCache = (Cache) obj;
-    return id.equals(otherCache.getId());
+  private void clearEntries() {
+    List<org.ehcache.Cache<Object, Object>> currentShards = getOrCreateShards();
+    if (currentShards.size() == 1) {
+      currentShards.get(0).clear();
+    } else {
+      currentShards.parallelStream().forEach(org.ehcache.Cache::clear);
+    }
+    org.ehcache.Cache<Object, Object> negatives = negativeCache;
+    if (negatives != null) {
+      negatives.clear();
+    }
+    ExpirySweeper sweeper = expirySweeper;
+    if (sweeper != null) {
+      sweeper.reset();
+    }
   }
 
   @Override
-  public int hashCode() {
-    return id.hashCode();
+  public String getId() {
+    return id;
   }
 
   @Override
-  public ReadWriteLock getReadWriteLock() {
-    return null;
+  public Object getObject(Object key) {
+    return lookup(key, true);
   }
 
-  @Override
-  public String toString() {
-    return "EHCache {" + id + "}";
+  private Object lookup(Object key, boolean tracksLoad) {
+    if (isSuspended()) {
+      statistics.recordBypassedRead();
+      return null;
+    }
+    HashKeyWrapper wrappedKey = new HashKeyWrapper(key);
+    Object value = readEntry(wrappedKey);
+    recordLookup(wrappedKey, value, tracksLoad);
+    return fromStored(value);
   }
 
-  // DYNAMIC PROPERTIES
+  /**
+   * Feeds a lookup to the hot key tracker, the access frequency sketch and the access trace and, on a miss, registers
+   * the pending load of the value if {@code tracksLoad}.
+   */
+  private void recordLookup(HashKeyWrapper wrappedKey, Object value, boolean tracksLoad) {
+    HotKeyTracker tracker = hotKeyTracker;
+    if (tracker != null && tracker.shouldSample()) {
+      tracker.record(wrappedKey);
+    }
+    FrequencySketch sketch = accessSketch;
+    if (sketch != null) {
+      sketch.increment(wrappedKey.hashCode());
+    }
+    AccessTraceRecorder recorder = traceRecorder;
+    if (recorder != null) {
+      recorder.record(value != null ? AccessTraceRecorder.HIT : AccessTraceRecorder.MISS, wrappedKey.hashCode());
+    }
+    if (value == null && tracksLoad && tracksPendingLoads()) {
+      if (pendingLoads.size() >= MAX_PENDING_LOADS) {
+        resetPendingLoads();
+      }
+      pendingLoads.put(new PendingKey(wrappedKey), new PendingLoad(CacheClock.nanoTime(), invalidations.get()));
+    }
+  }
 
   /**
-   * Sets the time to idle for an element before it expires. Is only used if the element is not eternal. If the cache
-   * has already been initialised the configuration change takes effect immediately by recreating the cache.
-   *
-   * @param timeToIdleSeconds
-   *          the default amount of time to live for an element from its last accessed or modified date
+   * Drops the pending loads once their tracking is full, since misses that were never followed by a put (e.g. rolled
+   * back) would otherwise pile up. The puts of the dropped loads can no longer be matched with their miss, so for a
+   * minute all the puts without a pending load are checked as if they had been read at the time of the oldest dropped
+   * load: stale put rejection fails closed rather than being silently disabled.
    */
-  public void setTimeToIdleSeconds(long timeToIdleSeconds) {
-    this.timeToIdleSeconds = timeToIdleSeconds;
-    recreateCacheIfInitialized();
+  private void resetPendingLoads() {
+    synchronized (pendingLoads) {
+      if (pendingLoads.size() < MAX_PENDING_LOADS) {
+        return;
+      }
+      long oldest = invalidations.get();
+      for (PendingLoad pendingLoad : pendingLoads.values()) {
+        oldest = Math.min(oldest, pendingLoad.version);
+      }
+      long until = lostLoadsUntilNanos;
+      if (until != 0 && System.nanoTime() - until < 0) {
+        oldest = Math.min(oldest, lostLoadsVersion);
+      }
+      // Published before the deadline, which readers read first
+      lostLoadsVersion = oldest;
+      lostLoadsUntilNanos = System.nanoTime() + LOST_LOADS_TIMEOUT_NANOS;
+      pendingLoads.clear();
+    }
+  }
+
+  private boolean tracksPendingLoads() {
+    return expensiveLoadMillis > 0 || rejectStalePuts;
   }
 
   /**
-   * Sets the time to live for an element before it expires. Is only used if the element is not eternal. If the cache
-   * has already been initialised the configuration change takes effect immediately by recreating the cache.
-   *
-   * @param timeToLiveSeconds
-   *          the default amount of time to live for an element from its creation date
+   * Checks whether the namespace or the stripe of {@code wrappedKey} was invalidated since the miss of
+   * {@code pendingLoad}. Puts without a pending load, such as puts from another thread, are not considered stale,
+   * unless the tracking of pending loads was reset recently.
    */
-  public void setTimeToLiveSeconds(long timeToLiveSeconds) {
-    this.timeToLiveSeconds = timeToLiveSeconds;
-    recreateCacheIfInitialized();
+  private boolean isStale(HashKeyWrapper wrappedKey, PendingLoad pendingLoad) {
+    long version;
+    if (pendingLoad != null) {
+      version = pendingLoad.version;
+    } else {
+      long until = lostLoadsUntilNanos;
+      if (until == 0 || System.nanoTime() - until >= 0) {
+        return false;
+      }
+      version = lostLoadsVersion;
+    }
+    return version < clearVersion.get()
+        || version < removalVersions.get(wrappedKey.hashCode() & (REMOVAL_STRIPES - 1));
   }
 
   /**
-   * Sets the maximum objects to be held in memory (0 = no limit). If the cache has already been initialised the
-   * configuration change takes effect immediately by recreating the cache.
-   *
-   * @param maxEntriesLocalHeap
-   *          The maximum number of elements in heap, before they are evicted (0 == no limit)
+   * Converts a value to its stored form, replacing {@code null} and empty lists by shared placeholders which take no
+   * per-entry value memory and serialise to a few bytes.
    */
-  public void setMaxEntriesLocalHeap(long maxEntriesLocalHeap) {
-    this.maxEntriesLocalHeap = maxEntriesLocalHeap;
-    recreateCacheIfInitialized();
+  private static Object toStored(Object value) {
+    if (value == null) {
+      return NULL_VALUE;
+    }
+    if (value instanceof ArrayList && ((ArrayList<?>) value).isEmpty()) {
+      return EMPTY_LIST_VALUE;
+    }
+    return value;
   }
 
   /**
-   * Sets the maximum number elements on Disk. 0 means unlimited.
-   * <p>
-   * Note: this property is retained for compatibility but has no effect in Ehcache 3, which does not support an
-   * entry-count limit for the disk tier. Use {@link #setMaxBytesLocalDisk(long)} to configure disk storage instead.
-   * </p>
-   *
-   * @param maxEntriesLocalDisk
-   *          the maximum number of Elements to allow on the disk. 0 means unlimited.
+   * Converts a stored value back to the value put. Empty lists are recreated on each read, so that callers may modify
+   * them freely.
    */
-  public void setMaxEntriesLocalDisk(long maxEntriesLocalDisk) {
-    this.maxEntriesLocalDisk = maxEntriesLocalDisk;
-    recreateCacheIfInitialized();
+  private static Object fromStored(Object value) {
+    if (value instanceof NullValue) {
+      return null;
+    }
+    if (value instanceof EmptyListValue) {
+      return new ArrayList<>();
+    }
+    return value;
+  }
+
+  static boolean isNegative(Object storedValue) {
+    return storedValue instanceof NullValue || storedValue instanceof EmptyListValue;
   }
 
   /**
-   * Sets the maximum bytes to be used for the disk tier. When greater than zero a disk resource pool is added to the
-   * cache, allowing entries evicted from the heap to overflow to disk. If set to zero (the default) no disk tier is
-   * configured and the cache is heap-only.
-   *
-   * @param maxBytesLocalDisk
-   *          the maximum number of bytes to allocate on disk. 0 means no disk tier (heap-only).
+   * Reads the entry stored under {@code wrappedKey}. When the disk tier circuit breaker is open, or the read fails, the
+   * lookup is answered as a miss.
    */
-  public void setMaxBytesLocalDisk(long maxBytesLocalDisk) {
-    this.maxBytesLocalDisk = maxBytesLocalDisk;
-    recreateCacheIfInitialized();
+  private Object readEntry(HashKeyWrapper wrappedKey) {
+    org.ehcache.Cache<Object, Object> shard = shardFor(wrappedKey);
+    org.ehcache.Cache<Object, Object> negatives = negativeCache;
+    Object value = negatives == null ? null : negatives.get(wrappedKey);
+    if (value != null) {
+      statistics.recordHit();
+      return value;
+    }
+    DiskTierCircuitBreaker breaker = diskBreaker;
+    if (breaker == null) {
+      value = shard.get(wrappedKey);
+    } else if (!breaker.allowRequest()) {
+      statistics.recordBypassedRead();
+      return null;
+    } else {
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+        value = shard.get(wrappedKey);
+        failed = false;
+      } catch (RuntimeException e) {
+        log.debug("Read from cache {} failed, answering as a miss", id, e);
+        value = null;
+      } finally {
+        // Also on errors, so that a probe is always completed
+        breaker.record(System.nanoTime() - start, failed);
+      }
+    }
+    if (value != null) {
+      statistics.recordHit();
+    } else {
+      statistics.recordMiss();
+    }
+    return value;
   }
 
   /**
-   * Sets the eviction policy. Stored for informational purposes; Ehcache 3 manages its own eviction strategy.
-   *
-   * @param memoryStoreEvictionPolicy
-   *          a String representation of the policy. One of "LRU", "LFU" or "FIFO".
+   * Stores {@code value} under {@code wrappedKey}. When negative results have their own store, the entry is first
+   * removed from the other store, so that an older value cannot reappear once the new one expires. When the disk tier
+   * circuit breaker is open, or the write fails, the put is skipped.
    */
-  public void setMemoryStoreEvictionPolicy(String memoryStoreEvictionPolicy) {
-    this.memoryStoreEvictionPolicy = memoryStoreEvictionPolicy;
-    recreateCacheIfInitialized();
+  private void writeEntry(HashKeyWrapper wrappedKey, Object value) {
+    org.ehcache.Cache<Object, Object> shard = shardFor(wrappedKey);
+    org.ehcache.Cache<Object, Object> negatives = negativeCache;
+    if (negatives != null) {
+      if (isNegative(value)) {
+        removeSilently(() -> shard.remove(wrappedKey));
+        negatives.put(wrappedKey, value);
+        return;
+      }
+      negatives.remove(wrappedKey);
+    }
+    DiskTierCircuitBreaker breaker = diskBreaker;
+    if (breaker == null) {
+      shard.put(wrappedKey, value);
+    } else if (!breaker.allowRequest()) {
+      statistics.recordSkippedWrite();
+    } else {
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+        shard.put(wrappedKey, value);
+        failed = false;
+      } catch (RuntimeException e) {
+        statistics.recordSkippedWrite();
+        log.debug("Write to cache {} failed, skipping the put", id, e);
+      } finally {
+        breaker.record(System.nanoTime() - start, failed);
+      }
+    }
   }
 
   /**
-   * Recreates the underlying Ehcache 3 cache with the current configuration if the cache has already been initialised.
-   * Called by property setters when a configuration change is requested after first use.
+   * Runs a removal of entries about to be put again as negative results, which the listeners do not see as removals.
    */
-  protected synchronized void recreateCacheIfInitialized() {
-    if (cache != null) {
-      cache = buildAndRegisterCache();
+  private void removeSilently(Runnable removal) {
+    CacheEventDispatcher dispatcher = eventDispatcher;
+    if (dispatcher == null) {
+      removal.run();
+    } else {
+      dispatcher.runSilently(removal);
     }
   }
 
   /**
-   * Placeholder used to represent a cached {@code null} value. Ehcache 3 does not permit null values, so this sentinel
-   * is stored and translated back to {@code null} on retrieval.
+   * Reads a batch of entries from {@code shard} like {@link #readEntry(HashKeyWrapper)}, the latency of the bulk
+   * operation being accounted per entry by the disk tier circuit breaker.
+   *
+   * @return the entries found, or {@code null} if the circuit breaker is open or the read failed
    */
-  private static final class NullValue implements Serializable {
-    private static final long serialVersionUID = 1L;
+  private Map<Object, Object> readEntries(org.ehcache.Cache<Object, Object> shard, Set<Object> wrappedKeys) {
+    DiskTierCircuitBreaker breaker = diskBreaker;
+    if (breaker == null) {
+      return shard.getAll(wrappedKeys);
+    }
+    if (!breaker.allowRequest()) {
+      return null;
+    }
+    long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      Map<Object, Object> found = shard.getAll(wrappedKeys);
+      failed = false;
+      return found;
+    } catch (RuntimeException e) {
+      log.debug("Read from cache {} failed, answering as misses", id, e);
+      return null;
+    } finally {
+      breaker.record((System.nanoTime() - start) / wrappedKeys.size(), failed);
+    }
+  }
+
+  /**
+   * Stores a batch of entries in {@code shard} like {@link #writeEntry(HashKeyWrapper, Object)}, the latency of the
+   * bulk operation being accounted per entry by the disk tier circuit breaker.
+   */
+  private void writeEntries(org.ehcache.Cache<Object, Object> shard, Map<Object, Object> batch) {
+    DiskTierCircuitBreaker breaker = diskBreaker;
+    if (breaker == null) {
+      shard.putAll(batch);
+    } else if (!breaker.allowRequest()) {
+      batch.forEach((wrappedKey, value) -> statistics.recordSkippedWrite());
+    } else {
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+        shard.putAll(batch);
+        failed = false;
+      } catch (RuntimeException e) {
+        batch.forEach((wrappedKey, value) -> statistics.recordSkippedWrite());
+        log.debug("Write to cache {} failed, skipping the puts", id, e);
+      } finally {
+        breaker.record((System.nanoTime() - start) / batch.size(), failed);
+      }
+    }
+  }
+
+  /**
+   * Returns the most frequently accessed keys of this cache, when {@link #setHotKeyCount(int)} is set.
+   *
+   * @return the hot keys, most frequent first; empty if hot key tracking is disabled
+   */
+  public List<HotKey> getHotKeys() {
+    HotKeyTracker tracker = hotKeyTracker;
+    return tracker == null ? Collections.emptyList() : tracker.hotKeys();
+  }
+
+  /**
+   * Returns the skew of the accesses to this cache, as the share of the recent lookups going to the keys reported by
+   * {@link #getHotKeys()}.
+   *
+   * @return the share of the lookups going to the hot keys, between 0 and 1; 0 if hot key tracking is disabled
+   */
+  public double getHotKeySkew() {
+    HotKeyTracker tracker = hotKeyTracker;
+    return tracker == null ? 0 : tracker.skew();
+  }
+
+  /**
+   * Registers a listener notified of the entries created, updated, removed, expired or evicted in this namespace, and
+   * of its clears. Negative results held in their own store are not reported.
+   *
+   * @param listener
+   *          the listener
+   *
+   * @see #setListenerFiring(String)
+   */
+  public synchronized void addListener(CacheEntryListener listener) {
+    entryListeners.add(listener);
+    if (eventDispatcher == null) {
+      updateEventDispatcher();
+    }
+  }
+
+  /**
+   * Unregisters a listener registered with {@link #addListener(CacheEntryListener)}.
+   *
+   * @param listener
+   *          the listener
+   */
+  public synchronized void removeListener(CacheEntryListener listener) {
+    entryListeners.remove(listener);
+    if (entryListeners.isEmpty() && eventDispatcher != null) {
+      updateEventDispatcher();
+    }
+  }
+
+  /**
+   * Returns the memory footprint of this cache estimated by the last pass of the background analyzer, when
+   * {@link #setFootprintIntervalMillis(long)} is set.
+   *
+   * @return the footprint, or {@code null} if the analyzer is disabled or has not completed a pass yet
+   */
+  public CacheFootprint getFootprint() {
+    FootprintAnalyzer analyzer = footprintAnalyzer;
+    return analyzer == null ? null : analyzer.getFootprint();
+  }
+
+  /**
+   * Returns the Ehcache 3 caches holding the entries of the namespace: its shards and the negative result store. Unlike
+   * the cache operations, does not build the caches: the list is empty until they are built.
+   */
+  List<org.ehcache.Cache<Object, Object>> stores() {
+    List<org.ehcache.Cache<Object, Object>> stores = new ArrayList<>(shardCaches);
+    org.ehcache.Cache<Object, Object> negatives = negativeCache;
+    if (negatives != null && !stores.isEmpty()) {
+      stores.add(negatives);
+    }
+    return stores;
+  }
+
+  /**
+   * Returns the runtime statistics of this cache.
+   *
+   * @return the statistics, updated live
+   */
+  public EhcacheStatistics getStatistics() {
+    return statistics;
+  }
+
+  @Override
+  public int getSize() {
+    int size = 0;
+    for (org.ehcache.Cache<Object, Object> shard : getOrCreateShards()) {
+      for (@SuppressWarnings("unused") Entry<Object, Object> entry : shard) {
+        size++;
+      }
+    }
+    org.ehcache.Cache<Object, Object> negatives = negativeCache;
+    if (negatives != null) {
+      for (@SuppressWarnings("unused") Entry<Object, Object> entry : negatives) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (isSuspended()) {
+      statistics.recordSkippedWrite();
+      return;
+    }
+    PreparedPut put = preparePut(key, value);
+    if (put != null) {
+      writeEntry(put.wrappedKey, put.storedValue);
+      completePut(put);
+    }
+  }
+
+  /**
+   * Applies the admission rules, the stale put check, the statement rules and the load cost to a put.
+   *
+   * @return the entry to write, or {@code null} if the put is rejected
+   */
+  private PreparedPut preparePut(Object key, Object value) {
+    HashKeyWrapper wrappedKey = new HashKeyWrapper(key);
+    PendingLoad pendingLoad = tracksPendingLoads() ? pendingLoads.remove(new PendingKey(wrappedKey)) : null;
+    if (!admit(key, value)) {
+      // Make sure an older value for the key does not outlive the rejected one
+      removeEntry(wrappedKey);
+      return null;
+    }
+    if (rejectStalePuts && isStale(wrappedKey, pendingLoad)) {
+      statistics.recordStalePut();
+      return null;
+    }
+    double weight = applyStatementRules(key, wrappedKey);
+    LoadCostTable costs = loadCosts;
+    if (costs != null) {
+      applyLoadCost(costs, wrappedKey, pendingLoad, weight);
+    }
+    Object storedValue = toStored(value);
+    if (negativeTimeToLiveSeconds > 0 && isNegative(storedValue)) {
+      wrappedKey.setTimeToLive(Duration.ofSeconds(negativeTimeToLiveSeconds));
+    }
+    return new PreparedPut(wrappedKey, value, storedValue, pendingLoad);
+  }
+
+  /**
+   * Completes a written put: undoes it if an invalidation raced with the write, and records it in the access trace and
+   * the expiry sweeper otherwise.
+   */
+  private void completePut(PreparedPut put) {
+    if (rejectStalePuts && isStale(put.wrappedKey, put.pendingLoad)) {
+      // An invalidation raced with the write and may have run before it: undo the write
+      removeEntry(put.wrappedKey);
+      statistics.recordStalePut();
+      return;
+    }
+    AccessTraceRecorder recorder = traceRecorder;
+    if (recorder != null) {
+      recorder.recordPut(put.wrappedKey.hashCode(), put.value);
+    }
+    ExpirySweeper sweeper = expirySweeper;
+    if (sweeper != null) {
+      long expiryMillis = expiryMillisOf(put.wrappedKey);
+      if (expiryMillis > 0) {
+        sweeper.track(put.wrappedKey, expiryMillis,
+            put.wrappedKey.getTimeToLive() == null && timeToLiveSeconds <= 0);
+      }
+    }
+  }
+
+  /**
+   * Returns the duration after which the entry stored under {@code wrappedKey} may have expired, or 0 if it never
+   * expires.
+   */
+  private long expiryMillisOf(HashKeyWrapper wrappedKey) {
+    Duration override = wrappedKey.getTimeToLive();
+    if (override != null) {
+      return override.toMillis();
+    }
+    return TimeUnit.SECONDS.toMillis(timeToLiveSeconds > 0 ? timeToLiveSeconds : timeToIdleSeconds);
+  }
+
+  /**
+   * Checks whether the entry stored under {@code wrappedKey} is still present. Ehcache 3 expires the entry if it is
+   * found expired, without counting the check as an access.
+   */
+  private boolean containsEntry(HashKeyWrapper wrappedKey) {
+    org.ehcache.Cache<Object, Object> negatives = negativeCache;
+    boolean negativePresent = negatives != null && negatives.containsKey(wrappedKey);
+    return shardFor(wrappedKey).containsKey(wrappedKey) || negativePresent;
+  }
+
+  /**
+   * Applies the admission rules to a put, counting rejections.
+   */
+  private boolean admit(Object key, Object value) {
+    StatementMatcher admitted = admittedStatementMatcher;
+    StatementMatcher rejected = rejectedStatementMatcher;
+    boolean admit = true;
+    if (admitted != null || rejected != null) {
+      String statementId = StatementIds.of(key);
+      if (statementId != null) {
+        admit = (rejected == null || !rejected.matches(statementId))
+            && (admitted == null || admitted.matches(statementId));
+      }
+    }
+    if (admit && maxCollectionSize > 0) {
+      admit = SizeEstimator.elementCount(value) <= maxCollectionSize;
+    }
+    if (admit && maxEntryBytes > 0) {
+      admit = SizeEstimator.estimate(value) <= maxEntryBytes;
+    }
+    if (!admit) {
+      statistics.recordRejectedPut();
+    }
+    return admit;
+  }
+
+  /**
+   * Applies the time to live of the statement of {@code key}, if any, to {@code wrappedKey} and returns the weight of
+   * the statement.
+   */
+  private double applyStatementRules(Object key, HashKeyWrapper wrappedKey) {
+    StatementRules timeToLiveRules = statementTimeToLiveRules;
+    StatementRules weightRules = statementWeightRules;
+    if (timeToLiveRules == null && weightRules == null) {
+      return 1;
+    }
+    String statementId = StatementIds.of(key);
+    if (statementId == null) {
+      return 1;
+    }
+    Double timeToLive = timeToLiveRules == null ? null : timeToLiveRules.valueFor(statementId);
+    if (timeToLive != null) {
+      wrappedKey.setTimeToLive(Duration.ofMillis((long) (timeToLive * 1000)));
+    }
+    Double weight = weightRules == null ? null : weightRules.valueFor(statementId);
+    return weight == null ? 1 : weight;
+  }
+
+  /**
+   * Records for {@code wrappedKey} the time elapsed since the cache miss that triggered the load of its value,
+   * multiplied by the weight of its statement, or forgets its previous cost if the put follows no miss. Expensive
+   * entries are protected from eviction and, when configured, get {@link #setExpensiveTimeToLiveSeconds(long)}.
+   */
+  private void applyLoadCost(LoadCostTable costs, HashKeyWrapper wrappedKey, PendingLoad pendingLoad, double weight) {
+    long cost = pendingLoad == null ? 0
+        : (long) (TimeUnit.NANOSECONDS.toMillis(CacheClock.nanoTime() - pendingLoad.startNanos) * weight);
+    costs.record(wrappedKey.hashCode(), cost);
+    if (cost >= expensiveLoadMillis && expensiveTimeToLiveSeconds > 0) {
+      wrappedKey.setTimeToLive(Duration.ofSeconds(expensiveTimeToLiveSeconds));
+    }
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Object obj = getObject(key);
+    HashKeyWrapper wrappedKey = new HashKeyWrapper(key);
+    recordRemoval(wrappedKey);
+    removeEntry(wrappedKey);
+    return obj;
+  }
+
+  /**
+   * Versions the removal of {@code wrappedKey}, so that values read before it are rejected, and records it in the
+   * access trace.
+   */
+  private void recordRemoval(HashKeyWrapper wrappedKey) {
+    pendingLoads.remove(new PendingKey(wrappedKey));
+    removalVersions.accumulateAndGet(wrappedKey.hashCode() & (REMOVAL_STRIPES - 1), invalidations.incrementAndGet(),
+        Math::max);
+    AccessTraceRecorder recorder = traceRecorder;
+    if (recorder != null) {
+      recorder.record(AccessTraceRecorder.REMOVE, wrappedKey.hashCode());
+    }
+  }
+
+  private void removeEntry(HashKeyWrapper wrappedKey) {
+    org.ehcache.Cache<Object, Object> negatives = negativeCache;
+    if (negatives != null) {
+      negatives.remove(wrappedKey);
+    }
+    shardFor(wrappedKey).remove(wrappedKey);
+  }
+
+  /**
+   * Looks up {@code key} like {@link #getObject(Object)}, on the asynchronous executor, so that the caller does not
+   * block on the disk tier.
+   * <p>
+   * Cost tracking and stale put rejection follow a miss and the subsequent put on the same thread, so they do not apply
+   * to values loaded after an asynchronous lookup, whose misses are not tracked.
+   * </p>
+   *
+   * @param key
+   *          the key to look up
+   *
+   * @return a future completed with the cached value, or with {@code null} on a miss
+   *
+   * @see #setAsyncExecutor(Executor)
+   */
+  public CompletableFuture<Object> getObjectAsync(Object key) {
+    return CompletableFuture.supplyAsync(() -> lookup(key, false), asyncExecutor());
+  }
+
+  /**
+   * Stores {@code value} under {@code key} like {@link #putObject(Object, Object)}, on the asynchronous executor.
+   *
+   * @param key
+   *          the key
+   * @param value
+   *          the value; may be {@code null}
+   *
+   * @return a future completed once the value is stored or, if not admitted, discarded
+   */
+  public CompletableFuture<Void> putObjectAsync(Object key, Object value) {
+    return CompletableFuture.runAsync(() -> putObject(key, value), asyncExecutor());
+  }
+
+  /**
+   * Clears the cache like {@link #clear()}, on the asynchronous executor.
+   *
+   * @return a future completed once the cache is cleared
+   */
+  public CompletableFuture<Void> clearAsync() {
+    return CompletableFuture.runAsync(this::clear, asyncExecutor());
+  }
+
+  private Executor asyncExecutor() {
+    Executor executor = asyncExecutor;
+    return executor != null ? executor : AsyncExecutors.defaultExecutor();
+  }
+
+  /**
+   * Stores all the given entries using a single Ehcache 3 bulk operation per shard. Compared to calling
+   * {@link #putObject(Object, Object)} once per entry, the cache is resolved only once and the underlying tiers receive
+   * the whole batch at a time, which amortises serialisation and disk writes when committing large transactions. Each
+   * entry is otherwise handled like a single put: admission and statement rules, stale put rejection, load cost, access
+   * trace and expiry sweeping all apply.
+   *
+   * @param entries
+   *          the entries to store; {@code null} values are supported
+   */
+  public void putAll(Map<?, ?> entries) {
+    if (entries.isEmpty()) {
+      return;
+    }
+    if (isSuspended()) {
+      entries.forEach((key, value) -> statistics.recordSkippedWrite());
+      return;
+    }
+    List<PreparedPut> puts = new ArrayList<>(entries.size());
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      PreparedPut put = preparePut(entry.getKey(), entry.getValue());
+      if (put != null) {
+        puts.add(put);
+      }
+    }
+    org.ehcache.Cache<Object, Object> negatives = negativeCache;
+    Map<org.ehcache.Cache<Object, Object>, Map<Object, Object>> batches = new HashMap<>();
+    Map<Object, Object> negativeBatch = new LinkedHashMap<>();
+    Map<org.ehcache.Cache<Object, Object>, Set<Object>> negativeKeysByShard = new HashMap<>();
+    for (PreparedPut put : puts) {
+      org.ehcache.Cache<Object, Object> shard = shardFor(put.wrappedKey);
+      if (negatives != null && isNegative(put.storedValue)) {
+        negativeBatch.put(put.wrappedKey, put.storedValue);
+        negativeKeysByShard.computeIfAbsent(shard, batch -> new HashSet<>()).add(put.wrappedKey);
+      } else {
+        batches.computeIfAbsent(shard, batch -> new LinkedHashMap<>()).put(put.wrappedKey, put.storedValue);
+      }
+    }
+    // Each key lives in only one of the positive and negative stores
+    removeSilently(() -> negativeKeysByShard.forEach(org.ehcache.Cache::removeAll));
+    if (negatives != null) {
+      batches.values().forEach(batch -> negatives.removeAll(batch.keySet()));
+      negatives.putAll(negativeBatch);
+    }
+    batches.forEach(this::writeEntries);
+    puts.forEach(this::completePut);
+  }
+
+  /**
+   * Looks up all the given keys using a single Ehcache 3 bulk operation per shard. Each key is otherwise handled like a
+   * single lookup: it counts as a hit or a miss, feeds the hot key tracker and the access trace, and registers the
+   * pending load of the value on a miss.
+   * <p>
+   * The returned map only contains the keys that were found in the cache. A key mapped to {@code null} denotes a cached
+   * {@code null} value, as stored by {@link #putObject(Object, Object)}.
+   * </p>
+   *
+   * @param keys
+   *          the keys to look up
+   *
+   * @return a mutable map of the cache hits, keyed by the original (unwrapped) keys
+   */
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    Map<Object, Object> hits = new HashMap<>();
+    if (keys.isEmpty()) {
+      return hits;
+    }
+    if (isSuspended()) {
+      keys.forEach(key -> statistics.recordBypassedRead());
+      return hits;
+    }
+    Map<org.ehcache.Cache<Object, Object>, Set<Object>> batches = wrapKeys(keys);
+    Map<Object, Object> found = new HashMap<>();
+    org.ehcache.Cache<Object, Object> negatives = negativeCache;
+    if (negatives != null) {
+      Set<Object> allKeys = new HashSet<>();
+      batches.values().forEach(allKeys::addAll);
+      collectFound(negatives.getAll(allKeys), found);
+    }
+    Set<Object> bypassed = new HashSet<>();
+    for (Map.Entry<org.ehcache.Cache<Object, Object>, Set<Object>> batch : batches.entrySet()) {
+      Set<Object> wrappedKeys = batch.getValue();
+      wrappedKeys.removeAll(found.keySet());
+      if (!wrappedKeys.isEmpty()) {
+        Map<Object, Object> lookup = readEntries(batch.getKey(), wrappedKeys);
+        if (lookup == null) {
+          bypassed.addAll(wrappedKeys);
+        } else {
+          collectFound(lookup, found);
+        }
+      }
+    }
+    for (Object key : keys) {
+      HashKeyWrapper wrappedKey = new HashKeyWrapper(key);
+      Object value = found.get(wrappedKey);
+      if (value != null) {
+        statistics.recordHit();
+        hits.put(key, fromStored(value));
+      } else if (bypassed.contains(wrappedKey)) {
+        statistics.recordBypassedRead();
+      } else {
+        statistics.recordMiss();
+      }
+      recordLookup(wrappedKey, value, true);
+    }
+    return hits;
+  }
+
+  /**
+   * Adds the entries found by an Ehcache 3 bulk lookup to {@code found}, skipping the keys that were not found.
+   */
+  private static void collectFound(Map<Object, Object> lookup, Map<Object, Object> found) {
+    for (Map.Entry<Object, Object> entry : lookup.entrySet()) {
+      if (entry.getValue() != null) {
+        found.put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Removes all the given keys using a single Ehcache 3 bulk operation per shard. Like single removals, the removals
+   * are versioned so that values read before them are rejected, and recorded in the access trace.
+   *
+   * @param keys
+   *          the keys to remove
+   */
+  public void removeAll(Collection<?> keys) {
+    if (keys.isEmpty()) {
+      return;
+    }
+    Map<org.ehcache.Cache<Object, Object>, Set<Object>> batches = wrapKeys(keys);
+    batches.values().forEach(batch -> batch.forEach(wrappedKey -> recordRemoval((HashKeyWrapper) wrappedKey)));
+    org.ehcache.Cache<Object, Object> negatives = negativeCache;
+    if (negatives != null) {
+      batches.values().forEach(negatives::removeAll);
+    }
+    batches.forEach(org.ehcache.Cache::removeAll);
+  }
+
+  /**
+   * Wraps {@code keys} and groups them by owning shard.
+   */
+  private Map<org.ehcache.Cache<Object, Object>, Set<Object>> wrapKeys(Collection<?> keys) {
+    Map<org.ehcache.Cache<Object, Object>, Set<Object>> batches = new HashMap<>();
+    for (Object key : keys) {
+      HashKeyWrapper wrappedKey = new HashKeyWrapper(key);
+      batches.computeIfAbsent(shardFor(wrappedKey), shard -> new LinkedHashSet<>()).add(wrappedKey);
+    }
+    return batches;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (!(obj instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) obj;
+    return id.equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    return id.hashCode();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return "EHCache {" + id + "}";
+  }
+
+  // DYNAMIC PROPERTIES
+
+  /**
+   * Sets the time to idle for an element before it expires. Is only used if the element is not eternal. If the cache
+   * has already been initialised the configuration change takes effect immediately by recreating the cache.
+   *
+   * @param timeToIdleSeconds
+   *          the default amount of time to live for an element from its last accessed or modified date
+   */
+  public void setTimeToIdleSeconds(long timeToIdleSeconds) {
+    this.timeToIdleSeconds = timeToIdleSeconds;
+    recreateCacheIfInitialized();
+  }
+
+  /**
+   * Sets the time to live for an element before it expires. Is only used if the element is not eternal. If the cache
+   * has already been initialised the configuration change takes effect immediately by recreating the cache.
+   *
+   * @param timeToLiveSeconds
+   *          the default amount of time to live for an element from its creation date
+   */
+  public void setTimeToLiveSeconds(long timeToLiveSeconds) {
+    this.timeToLiveSeconds = timeToLiveSeconds;
+    recreateCacheIfInitialized();
+  }
+
+  /**
+   * Sets the maximum objects to be held in memory (0 = no limit). If the cache has already been initialised the
+   * configuration change takes effect immediately by recreating the cache.
+   * <p>
+   * When the system property {@code mybatis.ehcache.globalMaxEntriesLocalHeap} sets a global heap budget, caches
+   * leaving this property at 0 share that budget instead of being unbounded.
+   * </p>
+   *
+   * @param maxEntriesLocalHeap
+   *          The maximum number of elements in heap, before they are evicted (0 == no limit)
+   */
+  public void setMaxEntriesLocalHeap(long maxEntriesLocalHeap) {
+    this.maxEntriesLocalHeap = maxEntriesLocalHeap;
+    recreateCacheIfInitialized();
+  }
+
+  /**
+   * Sets the maximum number elements on Disk. 0 means unlimited.
+   * <p>
+   * Note: this property is retained for compatibility but has no effect in Ehcache 3, which does not support an
+   * entry-count limit for the disk tier. Use {@link #setMaxBytesLocalDisk(long)} to configure disk storage instead.
+   * </p>
+   *
+   * @param maxEntriesLocalDisk
+   *          the maximum number of Elements to allow on the disk. 0 means unlimited.
+   */
+  public void setMaxEntriesLocalDisk(long maxEntriesLocalDisk) {
+    this.maxEntriesLocalDisk = maxEntriesLocalDisk;
+    recreateCacheIfInitialized();
+  }
+
+  /**
+   * Sets the maximum bytes to be used for the disk tier. When greater than zero a disk resource pool is added to the
+   * cache, allowing entries evicted from the heap to overflow to disk. If set to zero (the default) no disk tier is
+   * configured and the cache is heap-only.
+   *
+   * @param maxBytesLocalDisk
+   *          the maximum number of bytes to allocate on disk. 0 means no disk tier (heap-only).
+   */
+  public void setMaxBytesLocalDisk(long maxBytesLocalDisk) {
+    this.maxBytesLocalDisk = maxBytesLocalDisk;
+    recreateCacheIfInitialized();
+  }
+
+  /**
+   * Sets the eviction policy. Stored for informational purposes; Ehcache 3 manages its own eviction strategy.
+   *
+   * @param memoryStoreEvictionPolicy
+   *          a String representation of the policy. One of "LRU", "LFU" or "FIFO".
+   */
+  public void setMemoryStoreEvictionPolicy(String memoryStoreEvictionPolicy) {
+    this.memoryStoreEvictionPolicy = memoryStoreEvictionPolicy;
+    recreateCacheIfInitialized();
+  }
+
+  /**
+   * Sets the load time above which an entry is considered expensive. The load time is measured from the cache miss on a
+   * key to the subsequent {@link #putObject(Object, Object)} of its value. Expensive entries are protected from
+   * eviction in favour of cheaper ones and may be given a longer time to live with
+   * {@link #setExpensiveTimeToLiveSeconds(long)}. If the cache has already been initialised the configuration change
+   * takes effect immediately by recreating the cache.
+   *
+   * @param expensiveLoadMillis
+   *          the minimum load time, in milliseconds, of an expensive entry. 0 (the default) disables cost tracking.
+   */
+  public void setExpensiveLoadMillis(long expensiveLoadMillis) {
+    this.expensiveLoadMillis = expensiveLoadMillis;
+    pendingLoads.clear();
+    recreateCacheIfInitialized();
+  }
+
+  /**
+   * Sets the time to live of expensive entries, overriding the namespace expiry for them. Only used if
+   * {@link #setExpensiveLoadMillis(long)} is set.
+   *
+   * @param expensiveTimeToLiveSeconds
+   *          the time to live of expensive entries. 0 (the default) applies the namespace expiry.
+   */
+  public void setExpensiveTimeToLiveSeconds(long expensiveTimeToLiveSeconds) {
+    this.expensiveTimeToLiveSeconds = expensiveTimeToLiveSeconds;
+  }
+
+  /**
+   * Sets whether the heap tier shrinks while the JVM is under memory pressure. When enabled, the heap tier of this
+   * cache is scaled down together with all other participating namespaces once the memory still in use after a garbage
+   * collection exceeds a threshold, and restored once usage falls below a lower threshold. Entries dropped from the
+   * heap remain available from the disk tier, if configured. Only caches with a bounded heap tier are resized. The
+   * thresholds and shrink factor are configured through the {@code mybatis.ehcache.memoryPressure.*} system properties.
+   *
+   * @param shrinkOnMemoryPressure
+   *          whether to shrink the heap tier under memory pressure. Defaults to false.
+   */
+  public void setShrinkOnMemoryPressure(boolean shrinkOnMemoryPressure) {
+    this.shrinkOnMemoryPressure = shrinkOnMemoryPressure;
+    if (shrinkOnMemoryPressure) {
+      MemoryPressureMonitor.register(this);
+    } else {
+      MemoryPressureMonitor.unregister(this);
+    }
+  }
+
+  /**
+   * Sets the number of shards the namespace is split into. Each shard is a separate Ehcache 3 cache holding an equal
+   * share of the heap and disk sizes, and keys are routed to a shard by their mixed hash. Sharding spreads eviction
+   * bookkeeping and store contention of very hot namespaces, and lets {@link #clear()} run on all shards in parallel.
+   * If the cache has already been initialised the configuration change takes effect immediately by recreating the
+   * cache.
+   *
+   * @param shards
+   *          the number of shards. Defaults to 1.
+   */
+  public void setShards(int shards) {
+    if (shards < 1) {
+      throw new IllegalArgumentException("The number of shards must be at least 1");
+    }
+    this.shards = shards;
+    recreateCacheIfInitialized();
+  }
+
+  /**
+   * Sets the latency budget of a cache operation when a disk tier is configured. Reads and writes taking longer, or
+   * failing, count towards opening a circuit breaker; while the breaker is open, reads are answered as misses and
+   * writes are skipped so that queries no longer wait on a slow or failing disk. Removals and clears always go to the
+   * cache, so that stale entries cannot survive. Since Ehcache 3 does not expose the tiers separately, an open breaker
+   * also bypasses heap tier hits. The activity of the breaker is reported by {@link #getStatistics()}.
+   *
+   * @param diskLatencyBudgetMillis
+   *          the latency budget, in milliseconds. 0 (the default) disables the circuit breaker.
+   */
+  public void setDiskLatencyBudgetMillis(long diskLatencyBudgetMillis) {
+    this.diskLatencyBudgetMillis = diskLatencyBudgetMillis;
+    updateDiskBreaker();
+  }
+
+  /**
+   * Sets the number of slow or failed operations within {@link #setDiskFailureWindowMillis(long)} that opens the disk
+   * tier circuit breaker. Successful operations do not reset the count, so that fast heap tier hits cannot hide a slow
+   * disk tier. Only used if {@link #setDiskLatencyBudgetMillis(long)} is set.
+   *
+   * @param diskFailureThreshold
+   *          the number of failures. Defaults to 5.
+   */
+  public void setDiskFailureThreshold(int diskFailureThreshold) {
+    this.diskFailureThreshold = diskFailureThreshold;
+    updateDiskBreaker();
+  }
+
+  /**
+   * Sets the duration of the sliding window over which the failures opening the disk tier circuit breaker are counted.
+   * Only used if {@link #setDiskLatencyBudgetMillis(long)} is set.
+   *
+   * @param diskFailureWindowMillis
+   *          the window, in milliseconds. Defaults to 10000.
+   */
+  public void setDiskFailureWindowMillis(long diskFailureWindowMillis) {
+    this.diskFailureWindowMillis = diskFailureWindowMillis;
+    updateDiskBreaker();
+  }
+
+  /**
+   * Sets the delay after which an open disk tier circuit breaker lets a single probe operation through to check whether
+   * the disk has recovered. Only used if {@link #setDiskLatencyBudgetMillis(long)} is set.
+   *
+   * @param diskRecoveryMillis
+   *          the recovery delay, in milliseconds. Defaults to 30000.
+   */
+  public void setDiskRecoveryMillis(long diskRecoveryMillis) {
+    this.diskRecoveryMillis = diskRecoveryMillis;
+    updateDiskBreaker();
+  }
+
+  /**
+   * Sets the maximum estimated size of a cached value. Larger values are not admitted into the cache, so that a single
+   * huge result cannot evict many small hot entries nor cause expensive serialisation to the disk tier. The size is a
+   * cheap, sampled estimate of the heap footprint of the value. Rejections are reported by {@link #getStatistics()}.
+   *
+   * @param maxEntryBytes
+   *          the maximum estimated size in bytes. 0 (the default) admits values of any size.
+   */
+  public void setMaxEntryBytes(long maxEntryBytes) {
+    this.maxEntryBytes = maxEntryBytes;
+  }
+
+  /**
+   * Sets the maximum number of elements of a cached collection, map or array. Results with more elements are not
+   * admitted into the cache. Rejections are reported by {@link #getStatistics()}.
+   *
+   * @param maxCollectionSize
+   *          the maximum number of elements. 0 (the default) admits collections of any size.
+   */
+  public void setMaxCollectionSize(int maxCollectionSize) {
+    this.maxCollectionSize = maxCollectionSize;
+  }
+
+  /**
+   * Sets the statements whose results may be cached, as a comma-separated list of statement ids, where a trailing
+   * {@code *} matches any statement id with the given prefix. Results of other statements are not admitted into the
+   * cache. Keys that are not MyBatis {@code CacheKey}s are not subject to statement rules.
+   *
+   * @param admittedStatements
+   *          the statement patterns. {@code null} (the default) admits all statements.
+   */
+  public void setAdmittedStatements(String admittedStatements) {
+    this.admittedStatements = admittedStatements;
+    this.admittedStatementMatcher = StatementMatcher.parse(admittedStatements);
+  }
+
+  /**
+   * Sets the statements whose results must not be cached, as a comma-separated list of statement ids, where a trailing
+   * {@code *} matches any statement id with the given prefix. Takes precedence over
+   * {@link #setAdmittedStatements(String)}.
+   *
+   * @param rejectedStatements
+   *          the statement patterns. {@code null} (the default) rejects no statement.
+   */
+  public void setRejectedStatements(String rejectedStatements) {
+    this.rejectedStatements = rejectedStatements;
+    this.rejectedStatementMatcher = StatementMatcher.parse(rejectedStatements);
+  }
+
+  /**
+   * Sets the time to live of negative results, i.e. {@code null} results and empty lists, overriding the namespace
+   * expiry for them. Negative results are always stored as shared placeholders, taking no per-entry value memory.
+   *
+   * @param negativeTimeToLiveSeconds
+   *          the time to live of negative results. 0 (the default) applies the namespace expiry.
+   */
+  public void setNegativeTimeToLiveSeconds(long negativeTimeToLiveSeconds) {
+    this.negativeTimeToLiveSeconds = negativeTimeToLiveSeconds;
+  }
+
+  /**
+   * Sets the capacity of a separate heap-only store for negative results, i.e. {@code null} results and empty lists,
+   * so that they never crowd out real data nor reach the disk tier. If the cache has already been initialised the
+   * configuration change takes effect immediately by recreating the cache.
+   *
+   * @param maxNegativeEntries
+   *          the maximum number of negative results. 0 (the default) stores them with the other entries.
+   */
+  public void setMaxNegativeEntries(long maxNegativeEntries) {
+    this.maxNegativeEntries = maxNegativeEntries;
+    recreateCacheIfInitialized();
+  }
+
+  /**
+   * Sets the interval of a background sweeper purging expired entries. Ehcache 3 only expires entries lazily, when they
+   * are accessed or evicted, so without sweeping a namespace may hold large volumes of dead entries after traffic
+   * shifts. The sweeper runs on a shared low-priority thread and examines at most
+   * {@link #setExpirySweepBatchSize(int)} entries per run, within {@link #setExpirySweepBudgetMillis(long)}.
+   *
+   * @param expirySweepIntervalMillis
+   *          the delay between sweeper runs, in milliseconds. 0 (the default) disables sweeping.
+   */
+  public void setExpirySweepIntervalMillis(long expirySweepIntervalMillis) {
+    this.expirySweepIntervalMillis = expirySweepIntervalMillis;
+    updateExpirySweeper();
+  }
+
+  /**
+   * Sets the maximum number of entries examined per run of the expiry sweeper.
+   *
+   * @param expirySweepBatchSize
+   *          the batch size. Defaults to 1000.
+   */
+  public void setExpirySweepBatchSize(int expirySweepBatchSize) {
+    this.expirySweepBatchSize = expirySweepBatchSize;
+    updateExpirySweeper();
+  }
+
+  /**
+   * Sets the maximum duration of a run of the expiry sweeper.
+   *
+   * @param expirySweepBudgetMillis
+   *          the wall-clock time budget of a run, in milliseconds. Defaults to 5.
+   */
+  public void setExpirySweepBudgetMillis(long expirySweepBudgetMillis) {
+    this.expirySweepBudgetMillis = expirySweepBudgetMillis;
+    updateExpirySweeper();
+  }
+
+  private synchronized void updateExpirySweeper() {
+    if (expirySweeper != null) {
+      expirySweeper.cancel();
+    }
+    expirySweeper = expirySweepIntervalMillis > 0 ? new ExpirySweeper(this::containsEntry, expirySweepIntervalMillis,
+        expirySweepBatchSize, expirySweepBudgetMillis) : null;
+  }
+
+  /**
+   * Sets how values held by the heap tier are isolated from the objects seen by callers. By default values are stored
+   * by reference, so an application mutating a returned list corrupts the cached entry. If the cache has already been
+   * initialised the configuration change takes effect immediately by recreating the cache.
+   * <ul>
+   * <li>{@code none}: values are stored by reference (the default);</li>
+   * <li>{@code deep}: values are deep copied when stored and when read. Collections, maps, arrays and dates are copied
+   * directly, immutable JDK types are shared and other serializable objects are copied through serialization;</li>
+   * <li>{@code immutable}: values are deep copied when stored, and lists, sets and maps are returned as read-only views
+   * which cost no copy per hit.</li>
+   * </ul>
+   *
+   * @param valueCopy
+   *          one of {@code none}, {@code deep} or {@code immutable}
+   */
+  public void setValueCopy(String valueCopy) {
+    this.valueCopyMode = ResultCopier.Mode.parse(valueCopy);
+    this.valueCopy = valueCopy;
+    recreateCacheIfInitialized();
+  }
+
+  /**
+   * Sets the file into which a sampled trace of the accesses to this namespace is recorded, to be replayed offline by
+   * {@link TraceSimulator} for sizing the cache and its expiry. Each namespace needs its own file; an existing file is
+   * replaced. Lookups, puts, removals and clears are recorded, bulk operations entry by entry. The recording restarts
+   * when a configuration change recreates the cache, and stops when a new instance of the namespace is created.
+   *
+   * @param traceFile
+   *          the path of the trace file. {@code null} (the default) stops the recording.
+   */
+  public void setTraceFile(String traceFile) {
+    this.traceFile = traceFile;
+    updateTraceRecorder();
+  }
+
+  /**
+   * Sets the fraction of the keys whose accesses are recorded in the trace. Keys are sampled by hash, so all the
+   * accesses to a sampled key are recorded. Only used if {@link #setTraceFile(String)} is set.
+   *
+   * @param traceSampleRate
+   *          the sampled fraction of the keys, greater than 0 and at most 1. Defaults to 0.01.
+   */
+  public void setTraceSampleRate(double traceSampleRate) {
+    if (!(traceSampleRate > 0 && traceSampleRate <= 1)) {
+      throw new IllegalArgumentException("The trace sample rate must be in (0, 1] but was " + traceSampleRate);
+    }
+    this.traceSampleRate = traceSampleRate;
+    updateTraceRecorder();
+  }
+
+  private synchronized void updateTraceRecorder() {
+    if (traceRecorder != null) {
+      traceRecorder.close();
+      traceRecorder = null;
+    }
+    if (traceFile != null && !traceFile.isEmpty()) {
+      try {
+        traceRecorder = AccessTraceRecorder.start(id, Paths.get(traceFile), traceSampleRate);
+      } catch (IOException e) {
+        log.warn("Cannot record the access trace of cache {} into {}", id, traceFile, e);
+      }
+    }
+  }
+
+  /**
+   * Sets whether puts of values read before an invalidation of the namespace are rejected. A query missing the cache,
+   * then reading the database while a concurrent write commits and clears the namespace, would otherwise put its stale
+   * result back for the full time to live. When enabled, each miss records the current invalidation version, and the
+   * subsequent put of the same key on the same thread is rejected if {@link #clear()}, or a removal of a key of the
+   * same stripe, happened in between. Puts without a preceding miss on the same thread are accepted, except for a
+   * minute after more than 10000 misses were pending at once, when they are checked against the oldest of them.
+   * Rejections are reported by {@link #getStatistics()}.
+   *
+   * @param rejectStalePuts
+   *          whether to reject stale puts. Defaults to false.
+   */
+  public void setRejectStalePuts(boolean rejectStalePuts) {
+    this.rejectStalePuts = rejectStalePuts;
+  }
+
+  /**
+   * Sets the number of clears within one second that reveals a write burst, such as a batch job issuing thousands of
+   * updates on the namespace. Clears arriving while another one is pending or running are always merged into it; when
+   * this threshold is reached, caching is additionally suspended for {@link #setBurstSuspendMillis(long)}: lookups are
+   * answered as misses, puts are skipped and clears only extend the suspension. The namespace is cleared once more
+   * before caching resumes. The merged clears and suspensions are reported by {@link #getStatistics()}.
+   *
+   * @param burstClearThreshold
+   *          the number of clears per second suspending caching. 0 (the default) never suspends caching.
+   */
+  public void setBurstClearThreshold(int burstClearThreshold) {
+    this.burstClearThreshold = burstClearThreshold;
+  }
+
+  /**
+   * Sets how long caching stays suspended after the last clear of a write burst. Only used if
+   * {@link #setBurstClearThreshold(int)} is set.
+   *
+   * @param burstSuspendMillis
+   *          the suspension, in milliseconds. Defaults to 10000.
+   */
+  public void setBurstSuspendMillis(long burstSuspendMillis) {
+    this.burstSuspendMillis = burstSuspendMillis;
+  }
+
+  /**
+   * Sets the number of hot keys tracked, i.e. the keys dominating the lookups of the namespace, reported with their
+   * statement id by {@link #getHotKeys()}. Frequencies are estimated by a fixed-memory count-min sketch, fed with a
+   * random sample of the lookups so that tracking costs a few nanoseconds per lookup.
+   *
+   * @param hotKeyCount
+   *          the number of hot keys tracked. 0 (the default) disables hot key tracking.
+   */
+  public void setHotKeyCount(int hotKeyCount) {
+    this.hotKeyCount = hotKeyCount;
+    updateHotKeyTracker();
+  }
+
+  /**
+   * Sets the average number of lookups per lookup recorded by the hot key tracker. Only used if
+   * {@link #setHotKeyCount(int)} is set.
+   *
+   * @param hotKeySampleInterval
+   *          the sampling interval, 1 recording every lookup. Defaults to 16.
+   */
+  public void setHotKeySampleInterval(int hotKeySampleInterval) {
+    this.hotKeySampleInterval = hotKeySampleInterval;
+    updateHotKeyTracker();
+  }
+
+  private synchronized void updateHotKeyTracker() {
+    hotKeyTracker = hotKeyCount > 0 ? new HotKeyTracker(hotKeyCount, hotKeySampleInterval) : null;
+  }
+
+  /**
+   * Sets the executor running the asynchronous operations, such as {@link #getObjectAsync(Object)}. By default they run
+   * on virtual threads on Java 21 and later, and on a shared pool of daemon threads otherwise.
+   *
+   * @param asyncExecutor
+   *          the executor. {@code null} restores the default executor.
+   */
+  public void setAsyncExecutor(Executor asyncExecutor) {
+    this.asyncExecutor = asyncExecutor;
+  }
+
+  /**
+   * Sets the time to live of the results of specific statements, overriding the namespace expiry for them, as a
+   * comma-separated list of {@code statement=seconds} rules. The statement is either an exact statement id or a prefix
+   * followed by {@code *}; exact ids take precedence over prefixes, and longer prefixes over shorter ones. For instance
+   * {@code org.acme.FooMapper.selectCountries=3600, org.acme.FooMapper.*=30} keeps a near-static lookup for an hour
+   * while the other queries of the mapper live for 30 seconds. The time to live of expensive and negative results takes
+   * precedence. Keys that are not MyBatis {@code CacheKey}s are not subject to statement rules.
+   *
+   * @param statementTimeToLive
+   *          the rules. {@code null} (the default) applies the namespace expiry to all statements.
+   */
+  public void setStatementTimeToLive(String statementTimeToLive) {
+    this.statementTimeToLiveRules = StatementRules.parse("statementTimeToLive", statementTimeToLive);
+    this.statementTimeToLive = statementTimeToLive;
+  }
+
+  /**
+   * Sets the weight of the results of specific statements, as a comma-separated list of {@code statement=weight} rules
+   * matched like {@link #setStatementTimeToLive(String)}. The measured load cost of an entry is multiplied by the
+   * weight of its statement, so that entries of heavily weighted statements are protected from eviction sooner and
+   * entries of statements weighted 0 never are. Only used if {@link #setExpensiveLoadMillis(long)} is set.
+   *
+   * @param statementWeights
+   *          the rules. {@code null} (the default) weights all statements 1.
+   */
+  public void setStatementWeights(String statementWeights) {
+    this.statementWeightRules = StatementRules.parse("statementWeights", statementWeights);
+    this.statementWeights = statementWeights;
+  }
+
+  /**
+   * Sets which entries the heap tier keeps when it is full. With a disk tier, Ehcache 3 promotes every disk hit into
+   * the heap tier, so a single scan over cold keys can flush the working set of the heap.
+   * <ul>
+   * <li>{@code always}: all entries compete equally for the heap (the default);</li>
+   * <li>{@code secondAccess}: entries looked up at least twice recently are protected from eviction, so entries
+   * promoted or put by a one-off scan are evicted first. Lookups are counted by a fixed-memory frequency sketch.</li>
+   * </ul>
+   * Ehcache 3 offers no hook to skip the promotion itself, so protection is applied through eviction advice. If the
+   * cache has already been initialised the configuration change takes effect immediately by recreating the cache.
+   *
+   * @param heapPromotion
+   *          one of {@code always} or {@code secondAccess}
+   */
+  public void setHeapPromotion(String heapPromotion) {
+    if (heapPromotion == null || "always".equalsIgnoreCase(heapPromotion.trim())) {
+      secondAccessPromotion = false;
+    } else if ("secondAccess".equalsIgnoreCase(heapPromotion.trim())) {
+      secondAccessPromotion = true;
+    } else {
+      throw new IllegalArgumentException(
+          "Unknown heap promotion '" + heapPromotion + "', expected one of always or secondAccess");
+    }
+    this.heapPromotion = heapPromotion;
+    recreateCacheIfInitialized();
+  }
+
+  /**
+   * Sets the statements whose entries are never protected in the heap tier, such as reporting queries scanning cold
+   * data, as a comma-separated list of statement ids, where a trailing {@code *} matches any statement id with the
+   * given prefix. Only used if {@link #setHeapPromotion(String)} is {@code secondAccess}. If the cache has already been
+   * initialised the configuration change takes effect immediately by recreating the cache.
+   *
+   * @param heapPromotionExcludedStatements
+   *          the statement patterns. {@code null} (the default) excludes no statement.
+   */
+  public void setHeapPromotionExcludedStatements(String heapPromotionExcludedStatements) {
+    this.heapPromotionExcludedStatements = heapPromotionExcludedStatements;
+    this.promotionExcludedMatcher = StatementMatcher.parse(heapPromotionExcludedStatements);
+    recreateCacheIfInitialized();
+  }
+
+  /**
+   * Sets the number of segments of the disk tier. Each segment is locked independently, so more segments let more
+   * threads read and write the disk tier concurrently, at the cost of a coarser split of its capacity. Only used if
+   * {@link #setMaxBytesLocalDisk(long)} is set. If the cache has already been initialised the configuration change
+   * takes effect immediately by recreating the cache.
+   *
+   * @param diskSegments
+   *          the number of disk segments. Defaults to 16.
+   */
+  public void setDiskSegments(int diskSegments) {
+    this.diskSegments = diskSegments;
+    recreateCacheIfInitialized();
+  }
+
+  /**
+   * Sets the number of threads writing the disk tier, each serving a share of the disk segments. Only used if
+   * {@link #setMaxBytesLocalDisk(long)} is set. If the cache has already been initialised the configuration change
+   * takes effect immediately by recreating the cache.
+   *
+   * @param diskWriterConcurrency
+   *          the number of disk writer threads, at most {@link #setDiskSegments(int)}. Defaults to 1.
+   */
+  public void setDiskWriterConcurrency(int diskWriterConcurrency) {
+    this.diskWriterConcurrency = diskWriterConcurrency;
+    recreateCacheIfInitialized();
+  }
+
+  /**
+   * Sets the listeners of the namespace, as a comma-separated list of names of classes implementing
+   * {@link CacheEntryListener} with a public no-argument constructor. Replaces the listeners previously set by this
+   * property; listeners registered with {@link #addListener(CacheEntryListener)} are kept.
+   *
+   * @param listeners
+   *          the listener class names. {@code null} (the default) sets no listener.
+   */
+  public synchronized void setListeners(String listeners) {
+    List<CacheEntryListener> created = new ArrayList<>();
+    if (listeners != null) {
+      for (String className : listeners.split(",")) {
+        if (!className.trim().isEmpty()) {
+          created.add(instantiateListener(className.trim()));
+        }
+      }
+    }
+    entryListeners.removeAll(propertyListeners);
+    entryListeners.addAll(created);
+    propertyListeners = created;
+    this.listeners = listeners;
+    updateEventDispatcher();
+  }
+
+  private CacheEntryListener instantiateListener(String className) {
+    try {
+      ClassLoader loader = Thread.currentThread().getContextClassLoader();
+      Class<?> listenerClass = Class.forName(className, true,
+          loader != null ? loader : AbstractEhcacheCache.class.getClassLoader());
+      return (CacheEntryListener) listenerClass.getConstructor().newInstance();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      throw new IllegalArgumentException("Cannot create listener " + className + " of cache " + id, e);
+    }
+  }
+
+  /**
+   * Sets whether the events of a key are delivered in the order the operations happened.
+   *
+   * @param listenerOrdering
+   *          {@code ordered} or {@code unordered} (the default)
+   */
+  public void setListenerOrdering(String listenerOrdering) {
+    if (listenerOrdering == null || "unordered".equalsIgnoreCase(listenerOrdering.trim())) {
+      orderedEvents = false;
+    } else if ("ordered".equalsIgnoreCase(listenerOrdering.trim())) {
+      orderedEvents = true;
+    } else {
+      throw new IllegalArgumentException(
+          "Unknown listener ordering '" + listenerOrdering + "', expected one of ordered or unordered");
+    }
+    this.listenerOrdering = listenerOrdering;
+    updateEventDispatcher();
+  }
+
+  /**
+   * Sets how listeners are called. Asynchronous listeners are called on an executor shared by all the namespaces, fed
+   * by a bounded queue of {@link #setListenerQueueSize(int)} events per namespace, so that they never add latency to
+   * cache operations; events arriving while the queue is full are dropped and reported by {@link #getStatistics()}.
+   * Synchronous listeners are called on the thread performing the cache operation and see every event.
+   *
+   * @param listenerFiring
+   *          {@code async} (the default) or {@code sync}
+   */
+  public void setListenerFiring(String listenerFiring) {
+    if (listenerFiring == null || "async".equalsIgnoreCase(listenerFiring.trim())) {
+      synchronousEvents = false;
+    } else if ("sync".equalsIgnoreCase(listenerFiring.trim())) {
+      synchronousEvents = true;
+    } else {
+      throw new IllegalArgumentException(
+          "Unknown listener firing '" + listenerFiring + "', expected one of async or sync");
+    }
+    this.listenerFiring = listenerFiring;
+    updateEventDispatcher();
+  }
+
+  /**
+   * Sets the capacity of the queue of events awaiting asynchronous listeners.
+   *
+   * @param listenerQueueSize
+   *          the queue capacity, in events. Defaults to 10000.
+   */
+  public void setListenerQueueSize(int listenerQueueSize) {
+    if (listenerQueueSize < 1) {
+      throw new IllegalArgumentException("The listener queue size must be at least 1");
+    }
+    this.listenerQueueSize = listenerQueueSize;
+    updateEventDispatcher();
+  }
+
+  /**
+   * Sets the interval of a background analyzer estimating the memory footprint of the namespace, reported by
+   * {@link #getFootprint()}: the size of its keys and values and a histogram of the value sizes. Each run of the
+   * analyzer walks at most 1000 entries within 2 milliseconds on the shared low-priority maintenance thread, so a pass
+   * over a large namespace spans many runs.
+   *
+   * @param footprintIntervalMillis
+   *          the delay between analyzer runs, in milliseconds. 0 (the default) disables the analyzer.
+   */
+  public void setFootprintIntervalMillis(long footprintIntervalMillis) {
+    this.footprintIntervalMillis = footprintIntervalMillis;
+    updateFootprintAnalyzer();
+  }
+
+  /**
+   * Sets the number of entries walked by the footprint analyzer per entry whose size is estimated. Only used if
+   * {@link #setFootprintIntervalMillis(long)} is set.
+   *
+   * @param footprintSampleInterval
+   *          the sampling interval, 1 estimating every entry. Defaults to 16.
+   */
+  public void setFootprintSampleInterval(int footprintSampleInterval) {
+    this.footprintSampleInterval = footprintSampleInterval;
+    updateFootprintAnalyzer();
+  }
+
+  private synchronized void updateFootprintAnalyzer() {
+    if (footprintAnalyzer != null) {
+      footprintAnalyzer.cancel();
+    }
+    footprintAnalyzer = footprintIntervalMillis > 0
+        ? new FootprintAnalyzer(this::stores, footprintIntervalMillis, footprintSampleInterval) : null;
+  }
+
+  /**
+   * Recreates the underlying Ehcache 3 cache with the current configuration if the cache has already been initialised.
+   * Called by property setters when a configuration change is requested after first use.
+   */
+  protected synchronized void recreateCacheIfInitialized() {
+    if (cache != null) {
+      buildShards();
+      // The accesses recorded so far were served by the previous configuration
+      updateTraceRecorder();
+    }
+  }
+
+  /**
+   * A put accepted by {@link #preparePut(Object, Object)}, ready to be written.
+   */
+  private static final class PreparedPut {
+    private final HashKeyWrapper wrappedKey;
+    private final Object value;
+    private final Object storedValue;
+    private final PendingLoad pendingLoad;
+
+    PreparedPut(HashKeyWrapper wrappedKey, Object value, Object storedValue, PendingLoad pendingLoad) {
+      this.wrappedKey = wrappedKey;
+      this.value = value;
+      this.storedValue = storedValue;
+      this.pendingLoad = pendingLoad;
+    }
+  }
+
+  /**
+   * Key of a pending load: the cache key and the thread that missed it, which is also the thread putting the loaded
+   * value in MyBatis.
+   */
+  private static final class PendingKey {
+    private final HashKeyWrapper key;
+    private final long threadId;
+
+    PendingKey(HashKeyWrapper key) {
+      this.key = key;
+      this.threadId = Thread.currentThread().getId();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof PendingKey)) {
+        return false;
+      }
+      PendingKey other = (PendingKey) obj;
+      return threadId == other.threadId && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return key.hashCode() * 31 + Long.hashCode(threadId);
+    }
+  }
+
+  /**
+   * A load following a cache miss: its start time, in nanoseconds, and the invalidation version at the time of the
+   * miss.
+   */
+  private static final class PendingLoad {
+    private final long startNanos;
+    private final long version;
+
+    PendingLoad(long startNanos, long version) {
+      this.startNanos = startNanos;
+      this.version = version;
+    }
+  }
+
+  /**
+   * Placeholder used to represent a cached {@code null} value. Ehcache 3 does not permit null values, so this sentinel
+   * is stored and translated back to {@code null} on retrieval.
+   */
+  private static final class NullValue implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Object readResolve() {
+      return NULL_VALUE;
+    }
+  }
+
+  /**
+   * Placeholder used to represent a cached empty {@link ArrayList}, the result of queries finding no row.
+   */
+  private static final class EmptyListValue implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Object readResolve() {
+      return EMPTY_LIST_VALUE;
+    }
   }
 
 }
@@ -0,0 +1,63 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import org.ehcache.config.EvictionAdvisor;
+
+/**
+ * Ehcache 3 {@link EvictionAdvisor} that advises against evicting entries looked up at least twice recently, so that a
+ * one-off scan over cold keys evicts its own entries first instead of flushing the working set of the heap tier.
+ * <p>
+ * Lookups are counted by a {@link FrequencySketch} fed by the owning cache, whose periodic halving bounds the window
+ * in which the second lookup must happen. Entries of statements excluded from promotion are never protected; the
+ * statement is derived from the key itself, since the heap tier holds entries faulted in from the disk tier under the
+ * key of the lookup rather than the key they were put with. As with {@link CostAwareEvictionAdvisor}, Ehcache ignores
+ * the advice when every sampled candidate is protected.
+ * </p>
+ */
+final class AccessFrequencyEvictionAdvisor implements EvictionAdvisor<Object, Object> {
+
+  private final FrequencySketch sketch;
+  private final StatementMatcher excludedStatements;
+
+  /**
+   * Creates an advisor protecting the entries found frequent by {@code sketch}.
+   *
+   * @param sketch
+   *          the sketch counting the lookups of the cache
+   * @param excludedStatements
+   *          the statements whose entries are never protected, or {@code null}
+   */
+  AccessFrequencyEvictionAdvisor(FrequencySketch sketch, StatementMatcher excludedStatements) {
+    this.sketch = sketch;
+    this.excludedStatements = excludedStatements;
+  }
+
+  @Override
+  public boolean adviseAgainstEviction(Object key, Object value) {
+    HashKeyWrapper wrappedKey = (HashKeyWrapper) key;
+    return sketch.frequency(wrappedKey.hashCode()) >= 2 && !isExcluded(wrappedKey.getKey());
+  }
+
+  private boolean isExcluded(Object key) {
+    if (excludedStatements == null) {
+      return false;
+    }
+    String statementId = StatementIds.of(key);
+    return statementId != null && excludedStatements.matches(statementId);
+  }
+
+}
@@ -0,0 +1,201 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records a spatially sampled trace of the accesses to a cache into a compact binary file, to be replayed offline by
+ * {@link TraceSimulator}.
+ * <p>
+ * Only keys whose mixed hash falls into the sampled fraction of the hash space are recorded, so that every access to a
+ * sampled key is kept while the others cost a single comparison. Replaying such a trace against a cache scaled down
+ * by the same rate approximates the miss ratio of the full cache. Clears are always recorded.
+ * </p>
+ * <p>
+ * The file starts with a header made of the {@value #MAGIC} magic number, the format {@value #VERSION} and the sample
+ * rate as a {@code double}, followed by fixed-size records: the time elapsed since the start of the recording in
+ * nanoseconds ({@code long}), the operation ({@code byte}), the mixed key hash ({@code int}) and the estimated value
+ * size in bytes ({@code int}, only set for puts). Records are buffered and flushed every second by the shared
+ * {@link CacheMaintenance} thread. A write failure stops the recording.
+ * </p>
+ * <p>
+ * Recorders are registered by cache id, so that the recording of a namespace discarded for a new instance with the
+ * same id is stopped and its file completed, see {@link #stop(String)}.
+ * </p>
+ */
+final class AccessTraceRecorder {
+
+  static final int MAGIC = 0x4D425452;
+  static final int VERSION = 1;
+
+  static final byte HIT = 1;
+  static final byte MISS = 2;
+  static final byte PUT = 3;
+  static final byte REMOVE = 4;
+  static final byte CLEAR = 5;
+
+  /** Number of buckets the hash space is divided into for sampling. */
+  private static final int SAMPLING_BUCKETS = 1 << 16;
+
+  private static final Logger log = LoggerFactory.getLogger(AccessTraceRecorder.class);
+
+  /** Recorders of the namespaces, by cache id. */
+  private static final ConcurrentMap<String, AccessTraceRecorder> RECORDERS = new ConcurrentHashMap<>();
+
+  private final String cacheId;
+  private final Path file;
+  private final int sampledBuckets;
+  private final long startNanos = System.nanoTime();
+  private final DataOutputStream out;
+  private final ScheduledFuture<?> flushTask;
+  private boolean closed;
+
+  /**
+   * Creates the trace file, replacing any existing one, and starts recording the accesses to a namespace, stopping any
+   * recording of a previous instance of the namespace.
+   *
+   * @param cacheId
+   *          the id of the namespace
+   * @param file
+   *          the trace file
+   * @param sampleRate
+   *          the fraction of the key space to record, in (0, 1]
+   *
+   * @return the recorder
+   *
+   * @throws IOException
+   *           if the trace file cannot be created
+   */
+  static AccessTraceRecorder start(String cacheId, Path file, double sampleRate) throws IOException {
+    stop(cacheId);
+    AccessTraceRecorder recorder = new AccessTraceRecorder(cacheId, file, sampleRate);
+    AccessTraceRecorder previous = RECORDERS.put(cacheId, recorder);
+    if (previous != null) {
+      previous.close();
+    }
+    return recorder;
+  }
+
+  /**
+   * Stops the recording of the namespace with the given id, if any.
+   *
+   * @param cacheId
+   *          the id of the namespace
+   */
+  static void stop(String cacheId) {
+    AccessTraceRecorder recorder = RECORDERS.get(cacheId);
+    if (recorder != null) {
+      recorder.close();
+    }
+  }
+
+  private AccessTraceRecorder(String cacheId, Path file, double sampleRate) throws IOException {
+    this.cacheId = cacheId;
+    this.file = file;
+    this.sampledBuckets = (int) Math.max(1, Math.round(sampleRate * SAMPLING_BUCKETS));
+    this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeDouble(sampleRate);
+    this.flushTask = CacheMaintenance.scheduleWithFixedDelay(this, AccessTraceRecorder::flush, 1, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Returns whether the accesses to the key with the given mixed hash are recorded.
+   */
+  boolean isSampled(int keyHash) {
+    return (keyHash & (SAMPLING_BUCKETS - 1)) < sampledBuckets;
+  }
+
+  /**
+   * Records a lookup, a removal or a clear if the key is sampled.
+   *
+   * @param operation
+   *          one of {@link #HIT}, {@link #MISS}, {@link #REMOVE} or {@link #CLEAR}
+   * @param keyHash
+   *          the mixed hash of the key, ignored for clears
+   */
+  void record(byte operation, int keyHash) {
+    if (operation == CLEAR || isSampled(keyHash)) {
+      write(operation, keyHash, 0);
+    }
+  }
+
+  /**
+   * Records a put if the key is sampled, estimating the size of the value.
+   */
+  void recordPut(int keyHash, Object value) {
+    if (isSampled(keyHash)) {
+      write(PUT, keyHash, (int) Math.min(Integer.MAX_VALUE, SizeEstimator.estimate(value)));
+    }
+  }
+
+  private synchronized void write(byte operation, int keyHash, int valueSize) {
+    if (closed) {
+      return;
+    }
+    try {
+      out.writeLong(System.nanoTime() - startNanos);
+      out.writeByte(operation);
+      out.writeInt(keyHash);
+      out.writeInt(valueSize);
+    } catch (IOException e) {
+      log.warn("Writing the access trace {} failed, stopping the recording", file, e);
+      close();
+    }
+  }
+
+  synchronized void flush() {
+    if (!closed) {
+      try {
+        out.flush();
+      } catch (IOException e) {
+        log.warn("Flushing the access trace {} failed, stopping the recording", file, e);
+        close();
+      }
+    }
+  }
+
+  /**
+   * Stops the recording, flushing the buffered records to the trace file.
+   */
+  synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    RECORDERS.remove(cacheId, this);
+    flushTask.cancel(false);
+    try {
+      out.close();
+    } catch (IOException e) {
+      log.warn("Closing the access trace {} failed", file, e);
+    }
+  }
+
+}
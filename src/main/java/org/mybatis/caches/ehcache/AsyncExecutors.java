@@ -0,0 +1,73 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Default executor of the asynchronous cache operations and of the delivery of events to asynchronous listeners.
+ * <p>
+ * On Java 21 and later, each operation runs on a new virtual thread, so that blocking on the disk tier costs no
+ * platform thread. On older runtimes, operations run on a shared, unbounded pool of daemon threads. The executor is
+ * created lazily, the first time an asynchronous operation is issued.
+ * </p>
+ */
+final class AsyncExecutors {
+
+  private static final Logger log = LoggerFactory.getLogger(AsyncExecutors.class);
+
+  private AsyncExecutors() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Returns the shared default executor.
+   *
+   * @return the default executor
+   */
+  static Executor defaultExecutor() {
+    return Holder.EXECUTOR;
+  }
+
+  private static ExecutorService create() {
+    try {
+      // Looked up reflectively since the project is built for Java 17
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      log.debug("Virtual threads are not available, running asynchronous cache operations on a thread pool");
+      AtomicInteger threadCount = new AtomicInteger();
+      return Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "mybatis-ehcache-async-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  /**
+   * Lazy holder of the default executor.
+   */
+  private static final class Holder {
+    static final ExecutorService EXECUTOR = create();
+  }
+
+}
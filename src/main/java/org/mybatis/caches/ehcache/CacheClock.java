@@ -0,0 +1,65 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ehcache.core.spi.time.TimeSource;
+
+/**
+ * Clock shared by all the caches of the process: Ehcache 3 expires entries by its {@link #TIME_SOURCE}, and load costs,
+ * write bursts and expiry sweeps are timed by {@link #nanoTime()}.
+ * <p>
+ * It follows the system clock. Tests move it forward with {@link #advance(long, TimeUnit)} to expire entries and close
+ * time windows without waiting; it never moves backwards.
+ * </p>
+ */
+final class CacheClock {
+
+  private static final AtomicLong OFFSET_NANOS = new AtomicLong();
+
+  /** Time source of the cache managers. */
+  static final TimeSource TIME_SOURCE = () -> System.currentTimeMillis()
+      + TimeUnit.NANOSECONDS.toMillis(OFFSET_NANOS.get());
+
+  private CacheClock() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Returns the current value of the clock, in nanoseconds, only meaningful to compute elapsed times like
+   * {@link System#nanoTime()}.
+   *
+   * @return the current value of the clock
+   */
+  static long nanoTime() {
+    return System.nanoTime() + OFFSET_NANOS.get();
+  }
+
+  /**
+   * Moves the clock forward.
+   *
+   * @param duration
+   *          the duration to move forward by
+   * @param unit
+   *          the unit of {@code duration}
+   */
+  static void advance(long duration, TimeUnit unit) {
+    OFFSET_NANOS.addAndGet(unit.toNanos(Math.max(0, duration)));
+  }
+
+}
@@ -0,0 +1,118 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import org.ehcache.event.EventType;
+
+/**
+ * An entry created, updated, removed, expired or evicted in a cache namespace, as passed to a
+ * {@link CacheEntryListener}. Keys and values are the ones seen by MyBatis: cached {@code null} results are reported as
+ * {@code null} values.
+ * <p>
+ * A clear of the whole namespace, which removes its entries without reporting them one by one, is reported as a single
+ * {@link EventType#REMOVED} event with a {@code null} key, for which {@link #isClear()} returns true.
+ * </p>
+ */
+public final class CacheEntryEvent {
+
+  private final String cacheId;
+  private final EventType type;
+  private final Object key;
+  private final Object oldValue;
+  private final Object newValue;
+  private final boolean clear;
+
+  CacheEntryEvent(String cacheId, EventType type, Object key, Object oldValue, Object newValue) {
+    this(cacheId, type, key, oldValue, newValue, false);
+  }
+
+  private CacheEntryEvent(String cacheId, EventType type, Object key, Object oldValue, Object newValue,
+      boolean clear) {
+    this.cacheId = cacheId;
+    this.type = type;
+    this.key = key;
+    this.oldValue = oldValue;
+    this.newValue = newValue;
+    this.clear = clear;
+  }
+
+  /**
+   * Creates the event reporting a clear of the whole namespace.
+   */
+  static CacheEntryEvent clear(String cacheId) {
+    return new CacheEntryEvent(cacheId, EventType.REMOVED, null, null, null, true);
+  }
+
+  /**
+   * Returns the id (namespace) of the cache the event happened in.
+   *
+   * @return the cache id
+   */
+  public String getCacheId() {
+    return cacheId;
+  }
+
+  /**
+   * Returns what happened to the entry.
+   *
+   * @return the event type
+   */
+  public EventType getType() {
+    return type;
+  }
+
+  /**
+   * Returns the key of the entry.
+   *
+   * @return the key; {@code null} for a clear of the namespace
+   */
+  public Object getKey() {
+    return key;
+  }
+
+  /**
+   * Returns the value of the entry before the event.
+   *
+   * @return the previous value; {@code null} for created entries
+   */
+  public Object getOldValue() {
+    return oldValue;
+  }
+
+  /**
+   * Returns the value of the entry after the event.
+   *
+   * @return the new value; {@code null} for removed, expired and evicted entries
+   */
+  public Object getNewValue() {
+    return newValue;
+  }
+
+  /**
+   * Returns whether the event reports a clear of the whole namespace rather than the removal of a single entry.
+   *
+   * @return true for a clear of the namespace
+   */
+  public boolean isClear() {
+    return clear;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheEntryEvent {cacheId=" + cacheId + ", type=" + (clear ? "CLEAR" : type) + ", key=" + key + "}";
+  }
+
+}
@@ -0,0 +1,40 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+/**
+ * Listener notified of the entries created, updated, removed, expired or evicted in a cache namespace, registered with
+ * {@link AbstractEhcacheCache#addListener(CacheEntryListener)} or the {@code listeners} cache property.
+ * <p>
+ * By default listeners are called on a shared executor, through a bounded queue per namespace, so that they never add
+ * latency to cache operations; events arriving while the queue is full are dropped and counted. Listeners should
+ * therefore not rely on seeing every event unless synchronous firing is configured. Clears of the namespace are
+ * reported as well, see {@link CacheEntryEvent#isClear()}.
+ * </p>
+ */
+@FunctionalInterface
+public interface CacheEntryListener {
+
+  /**
+   * Called for each event of the namespace. Exceptions thrown are logged and do not affect the cache nor the other
+   * listeners.
+   *
+   * @param event
+   *          the event
+   */
+  void onEvent(CacheEntryEvent event);
+
+}
@@ -0,0 +1,160 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
+
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.CacheEventListener;
+import org.ehcache.event.EventType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ehcache 3 {@link CacheEventListener} registered on the shards of a namespace, relaying their events to the
+ * {@link CacheEntryListener}s of the namespace.
+ * <p>
+ * When asynchronous, the events are handed over to a bounded queue, drained on the shared
+ * {@link AsyncExecutors#defaultExecutor()} by at most one task at a time, which calls the listeners in queue order;
+ * events arriving while the queue is full are dropped and counted. Namespaces without pending events hold no thread.
+ * When synchronous, the listeners are called on the thread that triggered the event.
+ * </p>
+ * <p>
+ * Ehcache 3 does not report clears, so the namespace reports them itself through {@link #onClear()}. Conversely, the
+ * removals moving an entry to the store of negative results are not reported, see {@link #runSilently(Runnable)}.
+ * </p>
+ */
+final class CacheEventDispatcher implements CacheEventListener<Object, Object> {
+
+  private static final Logger log = LoggerFactory.getLogger(CacheEventDispatcher.class);
+
+  private final String cacheId;
+  private final List<CacheEntryListener> listeners;
+  private final UnaryOperator<Object> valueConverter;
+  private final EhcacheStatistics statistics;
+  private final Queue<CacheEntryEvent> queue;
+  private final Executor executor;
+  private final AtomicBoolean draining = new AtomicBoolean();
+  private final ThreadLocal<Boolean> silenced = new ThreadLocal<>();
+  private volatile boolean closed;
+
+  /**
+   * Creates a dispatcher.
+   *
+   * @param cacheId
+   *          the id of the namespace
+   * @param listeners
+   *          the listeners of the namespace, read on each event
+   * @param valueConverter
+   *          converts stored values back to the values put
+   * @param statistics
+   *          the statistics counting dropped events
+   * @param queueSize
+   *          the capacity of the event queue, or 0 to call the listeners synchronously
+   */
+  CacheEventDispatcher(String cacheId, List<CacheEntryListener> listeners, UnaryOperator<Object> valueConverter,
+      EhcacheStatistics statistics, int queueSize) {
+    this.cacheId = cacheId;
+    this.listeners = listeners;
+    this.valueConverter = valueConverter;
+    this.statistics = statistics;
+    this.queue = queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : null;
+    this.executor = queueSize > 0 ? AsyncExecutors.defaultExecutor() : null;
+  }
+
+  @Override
+  public void onEvent(CacheEvent<? extends Object, ? extends Object> event) {
+    if (event.getType() == EventType.REMOVED && silenced.get() != null) {
+      return;
+    }
+    Object oldValue = event.getOldValue();
+    Object newValue = event.getNewValue();
+    CacheEntryEvent entryEvent = new CacheEntryEvent(cacheId, event.getType(),
+        ((HashKeyWrapper) event.getKey()).getKey(), oldValue == null ? null : valueConverter.apply(oldValue),
+        newValue == null ? null : valueConverter.apply(newValue));
+    dispatch(entryEvent);
+  }
+
+  /**
+   * Runs {@code removal} without reporting the removals it triggers. The listeners are registered for synchronous
+   * firing, so these events are received on the current thread while {@code removal} runs.
+   *
+   * @param removal
+   *          the removal of entries that the namespace does not consider removed
+   */
+  void runSilently(Runnable removal) {
+    silenced.set(Boolean.TRUE);
+    try {
+      removal.run();
+    } finally {
+      silenced.remove();
+    }
+  }
+
+  /**
+   * Reports a clear of the whole namespace.
+   */
+  void onClear() {
+    dispatch(CacheEntryEvent.clear(cacheId));
+  }
+
+  private void dispatch(CacheEntryEvent event) {
+    if (queue == null) {
+      deliver(event);
+    } else if (!queue.offer(event)) {
+      statistics.recordDroppedEvent();
+    } else if (draining.compareAndSet(false, true)) {
+      executor.execute(this::drain);
+    }
+  }
+
+  private void drain() {
+    do {
+      CacheEntryEvent event;
+      while (!closed && (event = queue.poll()) != null) {
+        deliver(event);
+      }
+      draining.set(false);
+      // An event queued after the last poll but before the flag was reset found the drain still running
+    } while (!closed && !queue.isEmpty() && draining.compareAndSet(false, true));
+  }
+
+  private void deliver(CacheEntryEvent event) {
+    for (CacheEntryListener listener : listeners) {
+      try {
+        listener.onEvent(event);
+      } catch (RuntimeException e) {
+        log.warn("Listener {} of cache {} failed on {}", listener, cacheId, event, e);
+      }
+    }
+  }
+
+  /**
+   * Stops the delivery of events, discarding the queued ones.
+   */
+  void close() {
+    closed = true;
+    if (queue != null) {
+      queue.clear();
+    }
+  }
+
+}
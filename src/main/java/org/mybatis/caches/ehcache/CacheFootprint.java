@@ -0,0 +1,127 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.time.Instant;
+
+/**
+ * Estimated memory footprint of a cache namespace, as reported by {@link AbstractEhcacheCache#getFootprint()}.
+ * <p>
+ * Key sizes include the key wrapper and the MyBatis {@code CacheKey} with its components. Sizes are extrapolated from a
+ * sample of the entries and assume a 64-bit JVM with compressed references; the bookkeeping of Ehcache itself is not
+ * included. With a disk tier, entries held on disk are counted as well, at their heap size.
+ * </p>
+ */
+public final class CacheFootprint {
+
+  /** Number of buckets of the value size histogram. */
+  static final int BUCKETS = 32;
+
+  private final long entries;
+  private final long sampledEntries;
+  private final long keyBytes;
+  private final long valueBytes;
+  private final long[] valueSizeHistogram;
+  private final long timestamp;
+
+  CacheFootprint(long entries, long sampledEntries, long keyBytes, long valueBytes, long[] valueSizeHistogram,
+      long timestamp) {
+    this.entries = entries;
+    this.sampledEntries = sampledEntries;
+    this.keyBytes = keyBytes;
+    this.valueBytes = valueBytes;
+    this.valueSizeHistogram = valueSizeHistogram;
+    this.timestamp = timestamp;
+  }
+
+  /**
+   * Returns the index of the histogram bucket of a value of the given size.
+   */
+  static int bucketOf(long size) {
+    return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, size)));
+  }
+
+  /**
+   * Returns the number of entries of the namespace.
+   *
+   * @return the entry count
+   */
+  public long getEntries() {
+    return entries;
+  }
+
+  /**
+   * Returns the number of entries whose size was estimated.
+   *
+   * @return the sampled entry count
+   */
+  public long getSampledEntries() {
+    return sampledEntries;
+  }
+
+  /**
+   * Returns the estimated size of all the keys.
+   *
+   * @return the key size, in bytes
+   */
+  public long getKeyBytes() {
+    return keyBytes;
+  }
+
+  /**
+   * Returns the estimated size of all the values.
+   *
+   * @return the value size, in bytes
+   */
+  public long getValueBytes() {
+    return valueBytes;
+  }
+
+  /**
+   * Returns the estimated size of all the keys and values.
+   *
+   * @return the total size, in bytes
+   */
+  public long getTotalBytes() {
+    return keyBytes + valueBytes;
+  }
+
+  /**
+   * Returns the estimated number of values per size range: bucket {@code i} counts the values of {@code 2^i} to
+   * {@code 2^(i+1) - 1} bytes, the last bucket counting all larger values.
+   *
+   * @return a copy of the histogram
+   */
+  public long[] getValueSizeHistogram() {
+    return valueSizeHistogram.clone();
+  }
+
+  /**
+   * Returns when the estimate was completed.
+   *
+   * @return the completion time
+   */
+  public Instant getTimestamp() {
+    return Instant.ofEpochMilli(timestamp);
+  }
+
+  @Override
+  public String toString() {
+    return "CacheFootprint {entries=" + entries + ", sampledEntries=" + sampledEntries + ", keyBytes=" + keyBytes
+        + ", valueBytes=" + valueBytes + ", timestamp=" + getTimestamp() + "}";
+  }
+
+}
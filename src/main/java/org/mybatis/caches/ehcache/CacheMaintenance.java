@@ -0,0 +1,127 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared scheduler for the background maintenance tasks of all caches.
+ * <p>
+ * A single low-priority daemon thread is started lazily, the first time a task is scheduled. Tasks are expected to be
+ * short and to bound their own work per run; a failing run is logged and does not cancel subsequent runs.
+ * </p>
+ */
+final class CacheMaintenance {
+
+  private static final Logger log = LoggerFactory.getLogger(CacheMaintenance.class);
+
+  private CacheMaintenance() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Schedules {@code task} to run repeatedly with the given delay between the end of a run and the start of the next.
+   *
+   * @param task
+   *          the task to run
+   * @param delay
+   *          the delay between runs, also used as initial delay
+   * @param unit
+   *          the unit of {@code delay}
+   *
+   * @return the future used to cancel the task
+   */
+  static ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long delay, TimeUnit unit) {
+    return Holder.EXECUTOR.scheduleWithFixedDelay(() -> {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        log.warn("Cache maintenance task failed", e);
+      }
+    }, delay, delay, unit);
+  }
+
+  /**
+   * Runs {@code task} once, as soon as possible.
+   *
+   * @param task
+   *          the task to run
+   */
+  static void execute(Runnable task) {
+    Holder.EXECUTOR.execute(() -> {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        log.warn("Cache maintenance task failed", e);
+      }
+    });
+  }
+
+  /**
+   * Schedules {@code task} to run repeatedly on {@code owner} for as long as the owner is reachable. The owner is only
+   * weakly referenced, so {@code task} must not capture it; once the owner is garbage collected the task stops.
+   *
+   * @param <T>
+   *          the type of the owner
+   * @param owner
+   *          the object the task works on
+   * @param task
+   *          the task to run
+   * @param delay
+   *          the delay between runs, also used as initial delay
+   * @param unit
+   *          the unit of {@code delay}
+   *
+   * @return the future used to cancel the task
+   */
+  static <T> ScheduledFuture<?> scheduleWithFixedDelay(T owner, Consumer<? super T> task, long delay, TimeUnit unit) {
+    WeakReference<T> ownerRef = new WeakReference<>(owner);
+    return Holder.EXECUTOR.scheduleWithFixedDelay(() -> {
+      T currentOwner = ownerRef.get();
+      if (currentOwner == null) {
+        // Throwing from a periodic task suppresses its subsequent runs
+        throw new CancellationException("The owner of the maintenance task was garbage collected");
+      }
+      try {
+        task.accept(currentOwner);
+      } catch (RuntimeException e) {
+        log.warn("Cache maintenance task failed", e);
+      }
+    }, delay, delay, unit);
+  }
+
+  /**
+   * Lazy holder of the maintenance executor.
+   */
+  private static final class Holder {
+    static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "mybatis-ehcache-maintenance");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+  }
+
+}
@@ -0,0 +1,252 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.nio.file.Path;
+
+import org.ehcache.CacheManager;
+import org.ehcache.CachePersistenceException;
+import org.ehcache.PersistentCacheManager;
+import org.ehcache.Status;
+import org.ehcache.config.Builder;
+import org.ehcache.config.CacheConfiguration;
+import org.ehcache.config.Configuration;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.impl.internal.TimeSourceConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lazily created Ehcache 3 cache managers shared by all the caches of the process.
+ * <p>
+ * Heap-only caches are registered with a plain {@link CacheManager}, so that applications not using a disk tier never
+ * touch the file system. A {@link PersistentCacheManager} is only created when the first cache with a disk tier is
+ * built. Its directory defaults to {@code ehcache-mybatis} under {@code java.io.tmpdir} and may be changed with the
+ * system property {@value #DISK_STORE_PATH_PROPERTY}. Unless {@value #ISOLATE_DISK_STORE_PROPERTY} is set to
+ * {@code false}, each process uses its own subdirectory, removed on shutdown, so that several JVMs on the same host do
+ * not compete for the same directory.
+ * </p>
+ */
+final class CacheManagers {
+
+  static final String DISK_STORE_PATH_PROPERTY = "mybatis.ehcache.diskStorePath";
+  static final String ISOLATE_DISK_STORE_PROPERTY = "mybatis.ehcache.isolateDiskStore";
+
+  private static final Logger log = LoggerFactory.getLogger(CacheManagers.class);
+
+  private static volatile CacheManager heapManager;
+  private static volatile PersistentCacheManager diskManager;
+
+  private CacheManagers() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Returns the manager for caches with or without a disk tier, creating it on first use.
+   *
+   * @param diskTier
+   *          whether the cache has a disk tier
+   *
+   * @return the cache manager
+   */
+  static CacheManager get(boolean diskTier) {
+    return diskTier ? diskManager() : heapManager();
+  }
+
+  private static CacheManager heapManager() {
+    CacheManager manager = heapManager;
+    if (manager == null) {
+      synchronized (CacheManagers.class) {
+        manager = heapManager;
+        if (manager == null) {
+          manager = CacheManagerBuilder.newCacheManagerBuilder()
+              .using(new TimeSourceConfiguration(CacheClock.TIME_SOURCE)).build(true);
+          heapManager = manager;
+        }
+      }
+    }
+    return manager;
+  }
+
+  private static PersistentCacheManager diskManager() {
+    PersistentCacheManager manager = diskManager;
+    if (manager == null) {
+      synchronized (CacheManagers.class) {
+        manager = diskManager;
+        if (manager == null) {
+          boolean isolated = Boolean.parseBoolean(System.getProperty(ISOLATE_DISK_STORE_PROPERTY, "true"));
+          Path directory = Path.of(System.getProperty(DISK_STORE_PATH_PROPERTY,
+              Path.of(System.getProperty("java.io.tmpdir"), "ehcache-mybatis").toString()));
+          if (isolated) {
+            directory = directory.resolve("pid-" + ProcessHandle.current().pid());
+          }
+          manager = CacheManagerBuilder.newCacheManagerBuilder()
+              .using(new TimeSourceConfiguration(CacheClock.TIME_SOURCE))
+              .with(CacheManagerBuilder.persistence(directory.toString())).build(true);
+          if (isolated) {
+            Runtime.getRuntime()
+                .addShutdownHook(new Thread(CacheManagers::destroyDiskManager, "mybatis-ehcache-cleanup"));
+          }
+          diskManager = manager;
+        }
+      }
+    }
+    return manager;
+  }
+
+  /**
+   * Returns a manager view kept for the deprecated {@code AbstractEhcacheCache.CACHE_MANAGER} field. It finds the
+   * caches of both managers, while the other operations go to the disk manager, the single manager the field used to
+   * reference. Neither manager is created before it is actually used: only the creation of a cache creates the disk
+   * manager, the other operations leave it alone while it does not exist.
+   *
+   * @return the legacy manager view
+   */
+  static PersistentCacheManager legacyManager() {
+    return new LegacyCacheManager();
+  }
+
+  private static void destroyDiskManager() {
+    PersistentCacheManager manager = diskManager;
+    try {
+      manager.close();
+      manager.destroy();
+    } catch (CachePersistenceException | RuntimeException e) {
+      log.warn("Could not remove the disk store of the cache manager", e);
+    }
+  }
+
+  /**
+   * Returns the cache registered under {@code alias} in any of the created managers.
+   *
+   * @param alias
+   *          the cache alias
+   *
+   * @return the cache, or {@code null} if none is registered
+   */
+  static org.ehcache.Cache<Object, Object> getCache(String alias) {
+    CacheManager manager = heapManager;
+    org.ehcache.Cache<Object, Object> cache = manager == null ? null
+        : manager.getCache(alias, Object.class, Object.class);
+    manager = diskManager;
+    if (cache == null && manager != null) {
+      cache = manager.getCache(alias, Object.class, Object.class);
+    }
+    return cache;
+  }
+
+  /**
+   * Removes the cache registered under {@code alias} from any of the created managers. Managers that were not created
+   * yet are left alone.
+   *
+   * @param alias
+   *          the cache alias
+   */
+  static void removeCache(String alias) {
+    CacheManager manager = heapManager;
+    if (manager != null && manager.getCache(alias, Object.class, Object.class) != null) {
+      manager.removeCache(alias);
+    }
+    manager = diskManager;
+    if (manager != null && manager.getCache(alias, Object.class, Object.class) != null) {
+      manager.removeCache(alias);
+    }
+  }
+
+  /**
+   * The manager view returned by {@link CacheManagers#legacyManager()}.
+   */
+  private static final class LegacyCacheManager implements PersistentCacheManager {
+
+    @Override
+    public <K, V> org.ehcache.Cache<K, V> createCache(String alias, CacheConfiguration<K, V> config) {
+      return diskManager().createCache(alias, config);
+    }
+
+    @Override
+    public <K, V> org.ehcache.Cache<K, V> createCache(String alias,
+        Builder<? extends CacheConfiguration<K, V>> configBuilder) {
+      return diskManager().createCache(alias, configBuilder);
+    }
+
+    @Override
+    public <K, V> org.ehcache.Cache<K, V> getCache(String alias, Class<K> keyType, Class<V> valueType) {
+      CacheManager manager = heapManager;
+      org.ehcache.Cache<K, V> cache = manager == null ? null : manager.getCache(alias, keyType, valueType);
+      manager = diskManager;
+      if (cache == null && manager != null) {
+        cache = manager.getCache(alias, keyType, valueType);
+      }
+      return cache;
+    }
+
+    @Override
+    public void removeCache(String alias) {
+      CacheManagers.removeCache(alias);
+    }
+
+    @Override
+    public void init() {
+      PersistentCacheManager manager = diskManager;
+      if (manager != null) {
+        manager.init();
+      }
+    }
+
+    @Override
+    public void close() {
+      PersistentCacheManager manager = diskManager;
+      if (manager != null) {
+        manager.close();
+      }
+    }
+
+    @Override
+    public Status getStatus() {
+      CacheManager manager = diskManager;
+      if (manager == null) {
+        manager = heapManager;
+      }
+      return manager == null ? Status.UNINITIALIZED : manager.getStatus();
+    }
+
+    @Override
+    public Configuration getRuntimeConfiguration() {
+      CacheManager manager = diskManager;
+      if (manager == null) {
+        manager = heapManager;
+      }
+      return manager == null ? null : manager.getRuntimeConfiguration();
+    }
+
+    @Override
+    public void destroy() throws CachePersistenceException {
+      PersistentCacheManager manager = diskManager;
+      if (manager != null) {
+        manager.destroy();
+      }
+    }
+
+    @Override
+    public void destroyCache(String alias) throws CachePersistenceException {
+      PersistentCacheManager manager = diskManager;
+      if (manager != null) {
+        manager.destroyCache(alias);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,53 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import org.ehcache.config.EvictionAdvisor;
+
+/**
+ * Ehcache 3 {@link EvictionAdvisor} that advises against evicting entries whose measured load cost reached a threshold,
+ * so that cheap entries are chosen as eviction victims first.
+ * <p>
+ * Ehcache 3 only accepts a yes/no advice per eviction candidate, so the GreedyDual idea of evicting the entry with the
+ * lowest cost is approximated by protecting the expensive ones. Ehcache ignores the advice when every sampled candidate
+ * is protected, so a namespace made only of expensive entries still evicts. Costs are looked up in a
+ * {@link LoadCostTable} rather than read from the key, which Ehcache may have replaced by the key of a later lookup.
+ * </p>
+ */
+final class CostAwareEvictionAdvisor implements EvictionAdvisor<Object, Object> {
+
+  private final LoadCostTable costs;
+  private final long expensiveCost;
+
+  /**
+   * Creates an advisor protecting entries with at least the given cost.
+   *
+   * @param costs
+   *          the load costs of the entries of the cache
+   * @param expensiveCost
+   *          the minimum cost, in milliseconds, of a protected entry
+   */
+  CostAwareEvictionAdvisor(LoadCostTable costs, long expensiveCost) {
+    this.costs = costs;
+    this.expensiveCost = expensiveCost;
+  }
+
+  @Override
+  public boolean adviseAgainstEviction(Object key, Object value) {
+    return costs.costOf(key.hashCode()) >= expensiveCost;
+  }
+
+}
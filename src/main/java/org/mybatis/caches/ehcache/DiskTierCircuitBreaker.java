@@ -0,0 +1,172 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker guarding the operations of a cache with a disk tier.
+ * <p>
+ * An operation fails when it throws or takes longer than the latency budget. Failures are counted over a sliding
+ * window of time, and successes do not reset the count, so that fast heap tier hits cannot hide a slow or failing disk
+ * tier. Once the failures within the window reach the threshold the breaker opens: reads are then answered as misses
+ * and writes skipped without touching the cache. Once the recovery delay has elapsed, a single operation is let
+ * through as a probe; the breaker closes if the probe succeeds and stays open for another recovery delay otherwise.
+ * Operations admitted before the breaker opened do not affect an open breaker.
+ * </p>
+ */
+final class DiskTierCircuitBreaker {
+
+  /** Number of buckets the failure window is divided into. */
+  private static final int BUCKETS = 10;
+
+  /** Value of {@link #probeThread} while no probe is running. */
+  private static final long NO_PROBE = -1;
+
+  private final long latencyBudgetNanos;
+  private final int failureThreshold;
+  private final long bucketNanos;
+  private final long recoveryNanos;
+  private final EhcacheStatistics statistics;
+  private final LongSupplier clock;
+
+  /** Failures counted per bucket of the window, approximately: a failure racing with a bucket reset may be lost. */
+  private final AtomicLongArray bucketFailures = new AtomicLongArray(BUCKETS);
+  private final AtomicLongArray bucketEpochs = new AtomicLongArray(BUCKETS);
+  private final AtomicLong probeThread = new AtomicLong(NO_PROBE);
+  private volatile boolean open;
+  private volatile long openedAt;
+
+  /**
+   * Creates a closed circuit breaker.
+   *
+   * @param latencyBudgetMillis
+   *          the maximum duration of a successful operation, in milliseconds
+   * @param failureThreshold
+   *          the number of failures within the window opening the breaker
+   * @param windowMillis
+   *          the duration of the sliding window counting failures, in milliseconds
+   * @param recoveryMillis
+   *          the delay, in milliseconds, before an open breaker lets a probe through
+   * @param statistics
+   *          the statistics recording the breaker activity
+   */
+  DiskTierCircuitBreaker(long latencyBudgetMillis, int failureThreshold, long windowMillis, long recoveryMillis,
+      EhcacheStatistics statistics) {
+    this(latencyBudgetMillis, failureThreshold, windowMillis, recoveryMillis, statistics, System::nanoTime);
+  }
+
+  DiskTierCircuitBreaker(long latencyBudgetMillis, int failureThreshold, long windowMillis, long recoveryMillis,
+      EhcacheStatistics statistics, LongSupplier clock) {
+    this.latencyBudgetNanos = TimeUnit.MILLISECONDS.toNanos(latencyBudgetMillis);
+    this.failureThreshold = Math.max(1, failureThreshold);
+    this.bucketNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(windowMillis) / BUCKETS);
+    this.recoveryNanos = TimeUnit.MILLISECONDS.toNanos(recoveryMillis);
+    this.statistics = statistics;
+    this.clock = clock;
+    resetWindow();
+  }
+
+  /**
+   * Returns whether an operation may go to the cache.
+   *
+   * @return true if the breaker is closed, or if it is open and this operation is the recovery probe
+   */
+  boolean allowRequest() {
+    if (!open) {
+      return true;
+    }
+    return clock.getAsLong() - openedAt >= recoveryNanos
+        && probeThread.compareAndSet(NO_PROBE, Thread.currentThread().getId());
+  }
+
+  /**
+   * Records the outcome of an operation let through by {@link #allowRequest()}, on the thread that performed it. Must
+   * be called however the operation completed, an error included, or a probe would never be completed and the breaker
+   * would stay open.
+   *
+   * @param elapsedNanos
+   *          the duration of the operation
+   * @param failed
+   *          whether the operation threw
+   */
+  void record(long elapsedNanos, boolean failed) {
+    boolean failure = failed || elapsedNanos > latencyBudgetNanos;
+    if (open) {
+      if (probeThread.get() == Thread.currentThread().getId()) {
+        completeProbe(failure);
+      }
+    } else if (failure && countFailure() >= failureThreshold) {
+      synchronized (this) {
+        if (!open) {
+          openedAt = clock.getAsLong();
+          open = true;
+          statistics.recordDiskCircuitOpened();
+        }
+      }
+    }
+  }
+
+  private synchronized void completeProbe(boolean failure) {
+    if (failure) {
+      openedAt = clock.getAsLong();
+    } else {
+      resetWindow();
+      open = false;
+    }
+    probeThread.set(NO_PROBE);
+  }
+
+  /**
+   * Counts a failure in the current bucket of the window, returning the number of failures within the window.
+   */
+  private long countFailure() {
+    long epoch = Math.floorDiv(clock.getAsLong(), bucketNanos);
+    int index = (int) Math.floorMod(epoch, (long) BUCKETS);
+    long bucketEpoch = bucketEpochs.get(index);
+    if (bucketEpoch != epoch && bucketEpochs.compareAndSet(index, bucketEpoch, epoch)) {
+      bucketFailures.set(index, 0);
+    }
+    bucketFailures.incrementAndGet(index);
+    long failures = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      if (bucketEpochs.get(i) > epoch - BUCKETS) {
+        failures += bucketFailures.get(i);
+      }
+    }
+    return failures;
+  }
+
+  private void resetWindow() {
+    for (int i = 0; i < BUCKETS; i++) {
+      bucketEpochs.set(i, Long.MIN_VALUE);
+      bucketFailures.set(i, 0);
+    }
+  }
+
+  /**
+   * Returns whether the breaker is currently open.
+   *
+   * @return true if operations are being bypassed
+   */
+  boolean isOpen() {
+    return open;
+  }
+
+}
@@ -0,0 +1,192 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime statistics of a cache namespace.
+ * <p>
+ * Counters are cumulative since the cache instance was created and are updated without locking, so a snapshot taken
+ * while the cache is in use may be slightly inconsistent across counters.
+ * </p>
+ */
+public final class EhcacheStatistics {
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder diskCircuitOpenings = new LongAdder();
+  private final LongAdder bypassedReads = new LongAdder();
+  private final LongAdder skippedWrites = new LongAdder();
+  private final LongAdder rejectedPuts = new LongAdder();
+  private final LongAdder stalePuts = new LongAdder();
+  private final LongAdder coalescedClears = new LongAdder();
+  private final LongAdder burstSuspensions = new LongAdder();
+  private final LongAdder droppedEvents = new LongAdder();
+
+  void recordHit() {
+    hits.increment();
+  }
+
+  void recordMiss() {
+    misses.increment();
+  }
+
+  void recordDiskCircuitOpened() {
+    diskCircuitOpenings.increment();
+  }
+
+  void recordBypassedRead() {
+    bypassedReads.increment();
+  }
+
+  void recordSkippedWrite() {
+    skippedWrites.increment();
+  }
+
+  void recordRejectedPut() {
+    rejectedPuts.increment();
+  }
+
+  void recordStalePut() {
+    stalePuts.increment();
+  }
+
+  void recordCoalescedClear() {
+    coalescedClears.increment();
+  }
+
+  void recordBurstSuspension() {
+    burstSuspensions.increment();
+  }
+
+  void recordDroppedEvent() {
+    droppedEvents.increment();
+  }
+
+  /**
+   * Returns the number of lookups that found an entry.
+   *
+   * @return the hit count
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * Returns the number of lookups that found no entry.
+   *
+   * @return the miss count
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Returns the ratio of lookups that found an entry.
+   *
+   * @return the hit ratio, between 0 and 1, or 0 if there was no lookup yet
+   */
+  public double getHitRatio() {
+    long hitCount = getHits();
+    long total = hitCount + getMisses();
+    return total == 0 ? 0 : (double) hitCount / total;
+  }
+
+  /**
+   * Returns the number of times the disk tier circuit breaker opened.
+   *
+   * @return the circuit breaker opening count
+   */
+  public long getDiskCircuitOpenings() {
+    return diskCircuitOpenings.sum();
+  }
+
+  /**
+   * Returns the number of lookups answered as misses without reading the cache, e.g. while the disk tier circuit
+   * breaker was open. Bypassed reads are not counted as misses.
+   *
+   * @return the bypassed read count
+   */
+  public long getBypassedReads() {
+    return bypassedReads.sum();
+  }
+
+  /**
+   * Returns the number of puts that were not written to the cache, e.g. while the disk tier circuit breaker was open.
+   *
+   * @return the skipped write count
+   */
+  public long getSkippedWrites() {
+    return skippedWrites.sum();
+  }
+
+  /**
+   * Returns the number of puts refused by the admission rules of the cache.
+   *
+   * @return the rejected put count
+   */
+  public long getRejectedPuts() {
+    return rejectedPuts.sum();
+  }
+
+  /**
+   * Returns the number of puts rejected because the value was read before an invalidation of the namespace.
+   *
+   * @return the stale put count
+   */
+  public long getStalePuts() {
+    return stalePuts.sum();
+  }
+
+  /**
+   * Returns the number of clears that did not clear the cache themselves, being merged into a concurrent clear or
+   * arriving while caching was suspended during a write burst.
+   *
+   * @return the coalesced clear count
+   */
+  public long getCoalescedClears() {
+    return coalescedClears.sum();
+  }
+
+  /**
+   * Returns the number of times caching was suspended during a write burst.
+   *
+   * @return the write burst suspension count
+   */
+  public long getBurstSuspensions() {
+    return burstSuspensions.sum();
+  }
+
+  /**
+   * Returns the number of cache events not delivered to asynchronous listeners because their queue was full.
+   *
+   * @return the dropped event count
+   */
+  public long getDroppedEvents() {
+    return droppedEvents.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "EhcacheStatistics {hits=" + getHits() + ", misses=" + getMisses() + ", diskCircuitOpenings="
+        + getDiskCircuitOpenings() + ", bypassedReads=" + getBypassedReads() + ", skippedWrites=" + getSkippedWrites()
+        + ", rejectedPuts=" + getRejectedPuts() + ", stalePuts=" + getStalePuts()
+        + ", coalescedClears=" + getCoalescedClears() + ", burstSuspensions=" + getBurstSuspensions()
+        + ", droppedEvents=" + getDroppedEvents() + "}";
+  }
+
+}
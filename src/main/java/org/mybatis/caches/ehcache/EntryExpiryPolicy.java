@@ -0,0 +1,77 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+import org.ehcache.expiry.ExpiryPolicy;
+
+/**
+ * Ehcache 3 {@link ExpiryPolicy} applying the namespace time to live / time to idle, unless the {@link HashKeyWrapper}
+ * an entry was stored with carries a per-entry time to live override.
+ * <p>
+ * Overrides define the expiry on creation and update only. In time-to-idle mode every access still renews the entry
+ * with the namespace time to idle, since Ehcache 3 hands the lookup key (which carries no override) to
+ * {@link #getExpiryForAccess(Object, Supplier)}.
+ * </p>
+ */
+final class EntryExpiryPolicy implements ExpiryPolicy<Object, Object> {
+
+  /** Expiry applied on creation and update when the key carries no override. */
+  private final Duration defaultExpiry;
+
+  /** Expiry applied on access; {@code null} leaves the expiry unchanged. */
+  private final Duration accessExpiry;
+
+  /**
+   * Creates a policy with the namespace defaults.
+   *
+   * @param timeToLiveSeconds
+   *          the namespace time to live, or 0 for none
+   * @param timeToIdleSeconds
+   *          the namespace time to idle, or 0 for none; ignored when a time to live is configured
+   */
+  EntryExpiryPolicy(long timeToLiveSeconds, long timeToIdleSeconds) {
+    if (timeToLiveSeconds > 0) {
+      this.defaultExpiry = Duration.ofSeconds(timeToLiveSeconds);
+      this.accessExpiry = null;
+    } else if (timeToIdleSeconds > 0) {
+      this.defaultExpiry = Duration.ofSeconds(timeToIdleSeconds);
+      this.accessExpiry = defaultExpiry;
+    } else {
+      this.defaultExpiry = INFINITE;
+      this.accessExpiry = null;
+    }
+  }
+
+  @Override
+  public Duration getExpiryForCreation(Object key, Object value) {
+    Duration override = ((HashKeyWrapper) key).getTimeToLive();
+    return override != null ? override : defaultExpiry;
+  }
+
+  @Override
+  public Duration getExpiryForAccess(Object key, Supplier<?> value) {
+    return accessExpiry;
+  }
+
+  @Override
+  public Duration getExpiryForUpdate(Object key, Supplier<?> oldValue, Object newValue) {
+    return getExpiryForCreation(key, newValue);
+  }
+
+}
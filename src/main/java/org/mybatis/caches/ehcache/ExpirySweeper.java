@@ -0,0 +1,157 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Background sweeper purging expired entries of a cache, which Ehcache 3 would otherwise only expire lazily on access.
+ * <p>
+ * Puts register the key with the time at which the entry becomes eligible for expiry. Each run of the sweeper walks a
+ * bounded batch of due registrations within a wall-clock time budget and checks whether their entries are still
+ * present, which makes Ehcache expire and remove the entries found expired. Checks do not count as accesses, so they do
+ * not renew time-to-idle entries. A time-to-idle entry still present when checked was read in the meantime; it is
+ * registered again to be checked one idle period later. Registrations that are not due yet are rotated to the back of
+ * the queue, so that mixed expiry durations cannot block each other. At most {@value #MAX_TRACKED_ENTRIES}
+ * registrations are held at a time; entries put while the queue is full are left to lazy expiry.
+ * </p>
+ */
+final class ExpirySweeper {
+
+  static final int MAX_TRACKED_ENTRIES = 100_000;
+
+  private final Queue<Registration> registrations = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger registrationCount = new AtomicInteger();
+  private final Predicate<HashKeyWrapper> presenceCheck;
+  private final int batchSize;
+  private final long budgetNanos;
+  private final LongSupplier clock;
+  private final ScheduledFuture<?> task;
+
+  /**
+   * Creates and starts a sweeper.
+   *
+   * @param presenceCheck
+   *          checks whether the entry of a key is still present, expiring it if needed
+   * @param intervalMillis
+   *          the delay between runs, in milliseconds
+   * @param batchSize
+   *          the maximum number of registrations examined per run
+   * @param budgetMillis
+   *          the maximum wall-clock duration of a run, in milliseconds
+   */
+  ExpirySweeper(Predicate<HashKeyWrapper> presenceCheck, long intervalMillis, int batchSize, long budgetMillis) {
+    this(presenceCheck, intervalMillis, batchSize, budgetMillis, CacheClock::nanoTime);
+  }
+
+  ExpirySweeper(Predicate<HashKeyWrapper> presenceCheck, long intervalMillis, int batchSize, long budgetMillis,
+      LongSupplier clock) {
+    this.presenceCheck = presenceCheck;
+    this.batchSize = batchSize;
+    this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    this.clock = clock;
+    this.task = CacheMaintenance.scheduleWithFixedDelay(this, ExpirySweeper::sweep, intervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Registers an entry for sweeping.
+   *
+   * @param key
+   *          the key the entry was stored with
+   * @param expiryMillis
+   *          the duration after which the entry may have expired, in milliseconds
+   * @param idle
+   *          whether the duration is a time to idle, renewed by each read of the entry
+   */
+  void track(HashKeyWrapper key, long expiryMillis, boolean idle) {
+    if (registrationCount.incrementAndGet() > MAX_TRACKED_ENTRIES) {
+      registrationCount.decrementAndGet();
+      return;
+    }
+    long expiryNanos = TimeUnit.MILLISECONDS.toNanos(expiryMillis);
+    registrations.offer(new Registration(key, clock.getAsLong() + expiryNanos, idle ? expiryNanos : 0));
+  }
+
+  /**
+   * Drops all registrations, e.g. after the cache has been cleared.
+   */
+  void reset() {
+    while (registrations.poll() != null) {
+      registrationCount.decrementAndGet();
+    }
+  }
+
+  /**
+   * Examines a batch of registrations, checking the entries that are due.
+   */
+  void sweep() {
+    long start = clock.getAsLong();
+    for (int i = 0; i < batchSize && clock.getAsLong() - start < budgetNanos; i++) {
+      Registration registration = registrations.poll();
+      if (registration == null) {
+        return;
+      }
+      if (registration.deadline - start > 0) {
+        registrations.offer(registration);
+      } else if (presenceCheck.test(registration.key) && registration.idleNanos > 0) {
+        registrations.offer(new Registration(registration.key, start + registration.idleNanos,
+            registration.idleNanos));
+      } else {
+        registrationCount.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Returns the number of entries currently registered for sweeping.
+   *
+   * @return the registration count
+   */
+  int getTrackedEntries() {
+    return registrationCount.get();
+  }
+
+  /**
+   * Stops the sweeper.
+   */
+  void cancel() {
+    task.cancel(false);
+  }
+
+  /**
+   * A key registered for sweeping, with the time after which its entry may have expired and, for time-to-idle
+   * entries, the idle period.
+   */
+  private static final class Registration {
+    final HashKeyWrapper key;
+    final long deadline;
+    final long idleNanos;
+
+    Registration(HashKeyWrapper key, long deadline, long idleNanos) {
+      this.key = key;
+      this.deadline = deadline;
+      this.idleNanos = idleNanos;
+    }
+  }
+
+}
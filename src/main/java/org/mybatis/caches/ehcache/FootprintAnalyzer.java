@@ -0,0 +1,162 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.ehcache.Cache;
+import org.ehcache.Cache.Entry;
+
+/**
+ * Background estimator of the memory footprint of a cache namespace.
+ * <p>
+ * Each run of the analyzer walks a bounded batch of entries within a wall-clock time budget, resuming where the
+ * previous run stopped, and estimates the size of the key and value of one entry out of {@code sampleInterval} with
+ * {@link SizeEstimator}. Once all the entries have been walked, the totals are extrapolated to all the entries and
+ * published as a {@link CacheFootprint}, and a new pass starts with the next run. A pass interrupted by the cache being
+ * rebuilt is restarted. The analyzer never builds the cache itself: runs are skipped until it has been built.
+ * </p>
+ */
+final class FootprintAnalyzer {
+
+  private static final int BATCH_SIZE = 1000;
+  private static final long BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+  private final Supplier<List<Cache<Object, Object>>> stores;
+  private final int sampleInterval;
+  private final ScheduledFuture<?> task;
+
+  // State of the current pass, null between passes
+  private Iterator<Cache<Object, Object>> storeIterator;
+  private Iterator<Entry<Object, Object>> entryIterator;
+  private long entries;
+  private long sampledEntries;
+  private long keyBytes;
+  private long valueBytes;
+  private long[] histogram;
+
+  private volatile CacheFootprint footprint;
+
+  /**
+   * Creates and starts an analyzer.
+   *
+   * @param stores
+   *          supplies the Ehcache 3 caches holding the entries of the namespace, empty until they are built
+   * @param intervalMillis
+   *          the delay between runs, in milliseconds
+   * @param sampleInterval
+   *          the number of entries walked per entry estimated
+   */
+  FootprintAnalyzer(Supplier<List<Cache<Object, Object>>> stores, long intervalMillis, int sampleInterval) {
+    this.stores = stores;
+    this.sampleInterval = Math.max(1, sampleInterval);
+    this.task = CacheMaintenance.scheduleWithFixedDelay(this, FootprintAnalyzer::analyze, intervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Walks a batch of entries, publishing the footprint when the pass completes.
+   */
+  synchronized void analyze() {
+    if (storeIterator == null && !startPass()) {
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      for (int i = 0; i < BATCH_SIZE && System.nanoTime() - start < BUDGET_NANOS; i++) {
+        Entry<Object, Object> entry = nextEntry();
+        if (entry == null) {
+          publish();
+          storeIterator = null;
+          return;
+        }
+        if (entries++ % sampleInterval == 0) {
+          sample(entry);
+        }
+      }
+    } catch (IllegalStateException e) {
+      // A store was closed because the cache was rebuilt
+      storeIterator = null;
+    }
+  }
+
+  private Entry<Object, Object> nextEntry() {
+    while (entryIterator == null || !entryIterator.hasNext()) {
+      if (!storeIterator.hasNext()) {
+        return null;
+      }
+      entryIterator = storeIterator.next().iterator();
+    }
+    return entryIterator.next();
+  }
+
+  private void sample(Entry<Object, Object> entry) {
+    long valueSize = SizeEstimator.estimate(entry.getValue());
+    keyBytes += SizeEstimator.estimate(entry.getKey());
+    valueBytes += valueSize;
+    histogram[CacheFootprint.bucketOf(valueSize)]++;
+    sampledEntries++;
+  }
+
+  /**
+   * Starts a new pass over the current stores, returning false if they are not built yet.
+   */
+  private boolean startPass() {
+    List<Cache<Object, Object>> currentStores = stores.get();
+    if (currentStores.isEmpty()) {
+      return false;
+    }
+    storeIterator = currentStores.iterator();
+    entryIterator = null;
+    entries = 0;
+    sampledEntries = 0;
+    keyBytes = 0;
+    valueBytes = 0;
+    histogram = new long[CacheFootprint.BUCKETS];
+    return true;
+  }
+
+  private void publish() {
+    double scale = sampledEntries == 0 ? 0 : (double) entries / sampledEntries;
+    long[] estimatedHistogram = new long[histogram.length];
+    for (int i = 0; i < histogram.length; i++) {
+      estimatedHistogram[i] = Math.round(histogram[i] * scale);
+    }
+    footprint = new CacheFootprint(entries, sampledEntries, Math.round(keyBytes * scale),
+        Math.round(valueBytes * scale), estimatedHistogram, System.currentTimeMillis());
+  }
+
+  /**
+   * Returns the footprint estimated by the last completed pass.
+   *
+   * @return the footprint, or {@code null} until the first pass completes
+   */
+  CacheFootprint getFootprint() {
+    return footprint;
+  }
+
+  /**
+   * Stops the analyzer.
+   */
+  void cancel() {
+    task.cancel(false);
+  }
+
+}
@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+/**
+ * Fixed-memory count-min sketch estimating the access frequency of keys by their mixed hash.
+ * <p>
+ * Each key increments one counter in each of four rows, and its frequency is estimated by the smallest of them, which
+ * may over-estimate but never under-estimate the frequency. Once ten times as many increments as counters per row
+ * have been recorded, all counters are halved, so that estimates follow the recent workload and cannot overflow.
+ * </p>
+ * <p>
+ * The sketch is not thread-safe: concurrent increments may be lost, which only lowers the estimates. Callers needing
+ * exact sampled counts must synchronise.
+ * </p>
+ */
+final class FrequencySketch {
+
+  private static final int DEPTH = 4;
+
+  private static final int[] SEEDS = { 0x97CB3127, 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35 };
+
+  private final int[] table;
+  private final int width;
+  private final int resetThreshold;
+  private int additions;
+
+  /**
+   * Creates a sketch.
+   *
+   * @param width
+   *          the minimum number of counters per row, rounded up to a power of two
+   */
+  FrequencySketch(int width) {
+    this.width = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+    this.table = new int[DEPTH * this.width];
+    this.resetThreshold = 10 * this.width;
+  }
+
+  /**
+   * Records an access to the key with the given mixed hash.
+   *
+   * @return the estimated frequency of the key, including this access
+   */
+  int increment(int hash) {
+    int estimate = Integer.MAX_VALUE;
+    for (int row = 0; row < DEPTH; row++) {
+      int index = indexOf(hash, row);
+      estimate = Math.min(estimate, ++table[index]);
+    }
+    if (++additions >= resetThreshold) {
+      reset();
+      estimate >>>= 1;
+    }
+    return estimate;
+  }
+
+  /**
+   * Returns the estimated frequency of the key with the given mixed hash.
+   */
+  int frequency(int hash) {
+    int estimate = Integer.MAX_VALUE;
+    for (int row = 0; row < DEPTH; row++) {
+      estimate = Math.min(estimate, table[indexOf(hash, row)]);
+    }
+    return estimate;
+  }
+
+  /**
+   * Returns the number of increments recorded since the sketch was created, halved along with the counters.
+   */
+  int additions() {
+    return additions;
+  }
+
+  private int indexOf(int hash, int row) {
+    int h = (hash + SEEDS[row]) * 0x9E3779B9;
+    h ^= h >>> 16;
+    return row * width + (h & (width - 1));
+  }
+
+  private void reset() {
+    for (int i = 0; i < table.length; i++) {
+      table[i] >>>= 1;
+    }
+    additions >>>= 1;
+  }
+
+}
@@ -0,0 +1,229 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap budget, in entries, shared by all the namespaces that do not configure their own heap size.
+ * <p>
+ * The budget is set once for the process through the system property {@value #BUDGET_PROPERTY}. Participating caches
+ * join the budget when they are first built and receive an equal share, the shares of the other caches being scaled
+ * down to make room for it; the share of a cache leaving the budget is likewise spread over the remaining ones, so that
+ * the shares never add up to more than the budget. Every {@value #REBALANCE_PROPERTY} seconds
+ * (default 10) the budget is redistributed according to the recent demand of each namespace: every namespace keeps a
+ * floor of a tenth of its equal share, and the rest is split in proportion to the lookups since the previous
+ * rebalancing, misses counting double since they are the lookups more space could have turned into hits. Shares move
+ * halfway towards their target on each rebalancing to avoid oscillations.
+ * </p>
+ */
+final class GlobalHeapBudget {
+
+  static final String BUDGET_PROPERTY = "mybatis.ehcache.globalMaxEntriesLocalHeap";
+  static final String REBALANCE_PROPERTY = "mybatis.ehcache.globalBudgetRebalanceSeconds";
+
+  private static final GlobalHeapBudget INSTANCE = new GlobalHeapBudget(Long.getLong(BUDGET_PROPERTY, 0L),
+      Long.getLong(REBALANCE_PROPERTY, 10L));
+
+  private final long budget;
+  private final long rebalanceSeconds;
+  private final List<Participant> participants = new ArrayList<>();
+  private boolean scheduled;
+
+  GlobalHeapBudget(long budget, long rebalanceSeconds) {
+    this.budget = budget;
+    this.rebalanceSeconds = rebalanceSeconds;
+  }
+
+  /**
+   * Returns whether a global heap budget is configured for the process.
+   *
+   * @return true if caches without their own heap size should join the budget
+   */
+  static boolean isEnabled() {
+    return INSTANCE.budget > 0;
+  }
+
+  /**
+   * Joins {@code cache} to the process-wide budget.
+   *
+   * @param cache
+   *          the cache to join
+   *
+   * @return the initial share of the cache, in entries
+   */
+  static long register(AbstractEhcacheCache cache) {
+    return INSTANCE.join(cache);
+  }
+
+  /**
+   * Removes {@code cache} from the process-wide budget, spreading its share over the remaining caches.
+   *
+   * @param cache
+   *          the cache to remove
+   */
+  static void unregister(AbstractEhcacheCache cache) {
+    INSTANCE.leave(cache);
+  }
+
+  long join(AbstractEhcacheCache cache) {
+    Participant participant = new Participant(cache);
+    Map<AbstractEhcacheCache, Long> rescaled;
+    synchronized (this) {
+      removeParticipant(cache);
+      if (!scheduled && rebalanceSeconds > 0) {
+        scheduled = true;
+        CacheMaintenance.scheduleWithFixedDelay(this::rebalance, rebalanceSeconds, TimeUnit.SECONDS);
+      }
+      participant.share = Math.max(1, budget / (participants.size() + 1));
+      rescaled = rescale(budget - participant.share);
+      participants.add(participant);
+    }
+    applyLater(rescaled);
+    return participant.share;
+  }
+
+  void leave(AbstractEhcacheCache cache) {
+    Map<AbstractEhcacheCache, Long> rescaled;
+    synchronized (this) {
+      if (!removeParticipant(cache)) {
+        return;
+      }
+      rescaled = rescale(budget);
+    }
+    applyLater(rescaled);
+  }
+
+  private boolean removeParticipant(AbstractEhcacheCache cache) {
+    return participants.removeIf(participant -> participant.cache.get() == null || participant.cache.get() == cache);
+  }
+
+  /**
+   * Scales the shares of the participating caches so that they add up to at most {@code total}.
+   *
+   * @return the new shares
+   */
+  private Map<AbstractEhcacheCache, Long> rescale(long total) {
+    Map<AbstractEhcacheCache, Long> shares = new IdentityHashMap<>();
+    long allocated = allocated();
+    if (allocated == 0) {
+      return shares;
+    }
+    double factor = (double) total / allocated;
+    for (Participant participant : participants) {
+      AbstractEhcacheCache cache = participant.cache.get();
+      if (cache != null) {
+        participant.share = Math.max(1, (long) (participant.share * factor));
+        shares.put(cache, participant.share);
+      }
+    }
+    return shares;
+  }
+
+  /**
+   * Applies rescaled shares on the maintenance thread. Joining and leaving happen while the cache is being built, under
+   * its lock, so applying the shares of the other caches right away could deadlock with another cache being built.
+   */
+  private static void applyLater(Map<AbstractEhcacheCache, Long> shares) {
+    if (!shares.isEmpty()) {
+      CacheMaintenance.execute(() -> shares.forEach(AbstractEhcacheCache::applyHeapBudget));
+    }
+  }
+
+  /**
+   * Returns the sum of the shares of the participating caches.
+   *
+   * @return the allocated entries
+   */
+  synchronized long allocated() {
+    long allocated = 0;
+    for (Participant participant : participants) {
+      allocated += participant.share;
+    }
+    return allocated;
+  }
+
+  /**
+   * Redistributes the budget among the participating caches. Shares are computed under the budget lock and applied to
+   * the caches afterwards, so that the budget lock is never held while waiting on a cache.
+   */
+  void rebalance() {
+    Map<AbstractEhcacheCache, Long> shares = computeShares();
+    shares.forEach(AbstractEhcacheCache::applyHeapBudget);
+  }
+
+  synchronized Map<AbstractEhcacheCache, Long> computeShares() {
+    Map<AbstractEhcacheCache, Long> shares = new IdentityHashMap<>();
+    Map<AbstractEhcacheCache, Long> demands = new IdentityHashMap<>();
+    long totalDemand = 0;
+    for (Iterator<Participant> it = participants.iterator(); it.hasNext();) {
+      Participant participant = it.next();
+      AbstractEhcacheCache cache = participant.cache.get();
+      if (cache == null) {
+        it.remove();
+        continue;
+      }
+      long hits = cache.getStatistics().getHits();
+      long misses = cache.getStatistics().getMisses();
+      long demand = hits - participant.lastHits + 2 * (misses - participant.lastMisses);
+      participant.lastHits = hits;
+      participant.lastMisses = misses;
+      demands.put(cache, demand);
+      totalDemand += demand;
+    }
+    int count = demands.size();
+    if (count == 0) {
+      return shares;
+    }
+    long floor = Math.max(1, budget / count / 10);
+    long distributable = Math.max(0, budget - floor * count);
+    for (Participant participant : participants) {
+      AbstractEhcacheCache cache = participant.cache.get();
+      Long demand = cache == null ? null : demands.get(cache);
+      if (demand == null) {
+        continue;
+      }
+      long target = floor + (totalDemand == 0 ? distributable / count
+          : (long) ((double) distributable * demand / totalDemand));
+      participant.share = Math.max(1, (participant.share + target) / 2);
+      shares.put(cache, participant.share);
+    }
+    return shares;
+  }
+
+  /**
+   * Budget bookkeeping of a participating cache.
+   */
+  private static final class Participant {
+    final WeakReference<AbstractEhcacheCache> cache;
+    long lastHits;
+    long lastMisses;
+    long share;
+
+    Participant(AbstractEhcacheCache cache) {
+      this.cache = new WeakReference<>(cache);
+      this.lastHits = cache.getStatistics().getHits();
+      this.lastMisses = cache.getStatistics().getMisses();
+    }
+  }
+
+}
@@ -16,6 +16,7 @@
 package org.mybatis.caches.ehcache;
 
 import java.io.Serializable;
+import java.time.Duration;
 
 /**
  * Key wrapper that applies Murmur3 32-bit finalizer bit-mixing to {@link Object#hashCode()} before the value is exposed
@@ -49,6 +50,12 @@ final class HashKeyWrapper implements Serializable {
    */
   private final int hash;
 
+  /**
+   * Time to live overriding the namespace expiry for the entry stored under this key, or {@code null} to use the
+   * namespace default. Not part of the key identity; consulted by {@link EntryExpiryPolicy}.
+   */
+  private transient Duration timeToLive;
+
   /**
    * Wraps {@code key}, pre-computing its mixed hash.
    *
@@ -69,6 +76,14 @@ final class HashKeyWrapper implements Serializable {
     return key;
   }
 
+  Duration getTimeToLive() {
+    return timeToLive;
+  }
+
+  void setTimeToLive(Duration timeToLive) {
+    this.timeToLive = timeToLive;
+  }
+
   /**
    * Returns the pre-mixed hash code of the wrapped key.
    * <p>
@@ -0,0 +1,83 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.util.Locale;
+
+/**
+ * A frequently accessed key of a cache namespace, as reported by {@link AbstractEhcacheCache#getHotKeys()}.
+ * <p>
+ * Keys are identified by the id of the statement they cache and their mixed hash, since the keys themselves may hold
+ * sensitive query parameters. Frequencies are estimates over the recent accesses only.
+ * </p>
+ */
+public final class HotKey {
+
+  private final String statementId;
+  private final int keyHash;
+  private final long estimatedAccesses;
+  private final double share;
+
+  HotKey(String statementId, int keyHash, long estimatedAccesses, double share) {
+    this.statementId = statementId;
+    this.keyHash = keyHash;
+    this.estimatedAccesses = estimatedAccesses;
+    this.share = share;
+  }
+
+  /**
+   * Returns the id of the mapped statement whose result is cached under the key.
+   *
+   * @return the statement id, or {@code null} if the key is not a MyBatis {@code CacheKey}
+   */
+  public String getStatementId() {
+    return statementId;
+  }
+
+  /**
+   * Returns the mixed hash of the key.
+   *
+   * @return the key hash
+   */
+  public int getKeyHash() {
+    return keyHash;
+  }
+
+  /**
+   * Returns the estimated number of recent accesses to the key.
+   *
+   * @return the estimated access count
+   */
+  public long getEstimatedAccesses() {
+    return estimatedAccesses;
+  }
+
+  /**
+   * Returns the estimated share of the recent accesses to the namespace going to the key.
+   *
+   * @return the share, between 0 and 1
+   */
+  public double getShare() {
+    return share;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT, "HotKey {statementId=%s, keyHash=%08x, estimatedAccesses=%d, share=%.4f}",
+        statementId, keyHash, estimatedAccesses, share);
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Tracks the most frequently accessed keys of a cache using a {@link FrequencySketch} and a small set of heavy-hitter
+ * candidates.
+ * <p>
+ * Only a random sample of the accesses is recorded, so that the cost of an unsampled access is a random number draw.
+ * A sampled key enters the candidates when there is room, or when its estimated frequency exceeds the one of the least
+ * frequent candidate, which it then replaces.
+ * </p>
+ */
+final class HotKeyTracker {
+
+  private final FrequencySketch sketch;
+  private final int capacity;
+  private final int sampleInterval;
+  private final Map<Integer, Candidate> candidates = new HashMap<>();
+
+  /**
+   * Creates a tracker.
+   *
+   * @param capacity
+   *          the number of hot keys tracked
+   * @param sampleInterval
+   *          the average number of accesses per recorded access
+   */
+  HotKeyTracker(int capacity, int sampleInterval) {
+    this.capacity = capacity;
+    this.sampleInterval = Math.max(1, sampleInterval);
+    this.sketch = new FrequencySketch(Math.max(1024, capacity * 32));
+  }
+
+  /**
+   * Returns whether the current access should be recorded.
+   */
+  boolean shouldSample() {
+    return sampleInterval == 1 || ThreadLocalRandom.current().nextInt(sampleInterval) == 0;
+  }
+
+  /**
+   * Records a sampled access to {@code key}.
+   */
+  synchronized void record(HashKeyWrapper key) {
+    int hash = key.hashCode();
+    int estimate = sketch.increment(hash);
+    Candidate candidate = candidates.get(hash);
+    if (candidate != null) {
+      candidate.estimate = estimate;
+      return;
+    }
+    if (candidates.size() >= capacity) {
+      Candidate coldest = null;
+      for (Candidate current : candidates.values()) {
+        if (coldest == null || current.estimate < coldest.estimate) {
+          coldest = current;
+        }
+      }
+      // The stored estimate may predate the last halving of the sketch
+      coldest.estimate = sketch.frequency(coldest.hash);
+      if (estimate <= coldest.estimate) {
+        return;
+      }
+      candidates.remove(coldest.hash);
+    }
+    candidates.put(hash, new Candidate(StatementIds.of(key.getKey()), hash, estimate));
+  }
+
+  /**
+   * Returns the tracked hot keys, most frequent first.
+   */
+  synchronized List<HotKey> hotKeys() {
+    int sampled = Math.max(1, sketch.additions());
+    List<HotKey> hotKeys = new ArrayList<>(candidates.size());
+    for (Candidate candidate : candidates.values()) {
+      int frequency = sketch.frequency(candidate.hash);
+      hotKeys.add(new HotKey(candidate.statementId, candidate.hash, (long) frequency * sampleInterval,
+          Math.min(1.0, (double) frequency / sampled)));
+    }
+    hotKeys.sort(Comparator.comparingDouble(HotKey::getShare).reversed());
+    return hotKeys;
+  }
+
+  /**
+   * Returns the share of the recent accesses going to the tracked hot keys.
+   */
+  synchronized double skew() {
+    int sampled = sketch.additions();
+    if (sampled == 0) {
+      return 0;
+    }
+    long hot = 0;
+    for (Candidate candidate : candidates.values()) {
+      hot += sketch.frequency(candidate.hash);
+    }
+    return Math.min(1.0, (double) hot / sampled);
+  }
+
+  private static final class Candidate {
+    private final String statementId;
+    private final int hash;
+    private int estimate;
+
+    Candidate(String statementId, int hash, int estimate) {
+      this.statementId = statementId;
+      this.hash = hash;
+      this.estimate = estimate;
+    }
+  }
+
+}
@@ -0,0 +1,81 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size table of the measured load costs of the entries of a cache, indexed by the mixed hash of their keys.
+ * <p>
+ * Costs are kept apart from the keys because Ehcache 3 does not keep the key an entry was put with: an entry faulted
+ * into the heap tier from the disk tier is stored under the key of the lookup, and an update of a heap entry keeps the
+ * key of the first put. Each slot holds the cost along with the full hash of the key it was recorded for, so a key
+ * never sees the cost of another one. Keys sharing a slot overwrite each other, which can only lose protection from
+ * eviction, never grant it.
+ * </p>
+ */
+final class LoadCostTable {
+
+  private final AtomicLongArray slots;
+  private final int mask;
+
+  /**
+   * Creates a table.
+   *
+   * @param capacity
+   *          the minimum number of slots, rounded up to a power of two
+   */
+  LoadCostTable(int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    this.slots = new AtomicLongArray(size);
+    this.mask = size - 1;
+  }
+
+  /**
+   * Records the cost of the entry stored under a key, replacing any cost previously recorded for the key. A cost of 0
+   * only forgets the previous cost of the key, leaving the slot to its current owner otherwise.
+   *
+   * @param hash
+   *          the mixed hash of the key
+   * @param cost
+   *          the cost of the entry, in milliseconds
+   */
+  void record(int hash, long cost) {
+    int index = hash & mask;
+    if (cost > 0) {
+      slots.set(index, ((long) hash << 32) | Math.min(cost, 0xFFFFFFFFL));
+    } else {
+      long slot = slots.get(index);
+      if ((int) (slot >>> 32) == hash) {
+        slots.compareAndSet(index, slot, 0);
+      }
+    }
+  }
+
+  /**
+   * Returns the cost recorded for a key.
+   *
+   * @param hash
+   *          the mixed hash of the key
+   *
+   * @return the cost, in milliseconds, or 0 if none is recorded
+   */
+  long costOf(int hash) {
+    long slot = slots.get(hash & mask);
+    return (int) (slot >>> 32) == hash ? slot & 0xFFFFFFFFL : 0;
+  }
+
+}
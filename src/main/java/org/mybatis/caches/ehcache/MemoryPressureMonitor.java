@@ -0,0 +1,182 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Shrinks the heap tier of the registered caches while the JVM is under memory pressure and grows them back once the
+ * pressure subsides.
+ * <p>
+ * Pressure is detected through the collection usage threshold of the heap memory pools: when the memory still in use
+ * after a garbage collection exceeds the high threshold, every registered cache is scaled down by the same shrink
+ * factor. Entries dropped from the heap tier remain available from the disk tier, if one is configured. The pools are
+ * then polled every second and the caches restored once usage after collection falls below the low threshold.
+ * </p>
+ * <p>
+ * The thresholds (fractions of the pool maximum) and the shrink factor are read once from the system properties
+ * {@value #HIGH_THRESHOLD_PROPERTY} (default 0.85), {@value #LOW_THRESHOLD_PROPERTY} (default 0.70) and
+ * {@value #SHRINK_FACTOR_PROPERTY} (default 0.5). Note that the monitor sets the collection usage threshold of the heap
+ * pools, which is a JVM-wide setting.
+ * </p>
+ */
+final class MemoryPressureMonitor implements NotificationListener {
+
+  static final String HIGH_THRESHOLD_PROPERTY = "mybatis.ehcache.memoryPressure.highThreshold";
+  static final String LOW_THRESHOLD_PROPERTY = "mybatis.ehcache.memoryPressure.lowThreshold";
+  static final String SHRINK_FACTOR_PROPERTY = "mybatis.ehcache.memoryPressure.shrinkFactor";
+
+  private static final MemoryPressureMonitor INSTANCE = new MemoryPressureMonitor(
+      Double.parseDouble(System.getProperty(HIGH_THRESHOLD_PROPERTY, "0.85")),
+      Double.parseDouble(System.getProperty(LOW_THRESHOLD_PROPERTY, "0.70")),
+      Double.parseDouble(System.getProperty(SHRINK_FACTOR_PROPERTY, "0.5")));
+
+  private final double highThreshold;
+  private final double lowThreshold;
+  private final double shrinkFactor;
+
+  /** The registered caches; weakly referenced so that discarded caches are not retained. */
+  private final List<WeakReference<AbstractEhcacheCache>> caches = new CopyOnWriteArrayList<>();
+
+  /** The monitored heap pools, populated on installation. */
+  private final List<MemoryPoolMXBean> pools = new ArrayList<>();
+
+  private boolean installed;
+  private boolean underPressure;
+  private ScheduledFuture<?> recoveryCheck;
+
+  MemoryPressureMonitor(double highThreshold, double lowThreshold, double shrinkFactor) {
+    if (lowThreshold > highThreshold) {
+      throw new IllegalArgumentException("The low memory threshold must not exceed the high threshold");
+    }
+    this.highThreshold = highThreshold;
+    this.lowThreshold = lowThreshold;
+    this.shrinkFactor = shrinkFactor;
+  }
+
+  /**
+   * Registers {@code cache} with the shared monitor, installing the monitor on first use.
+   *
+   * @param cache
+   *          the cache to shrink under memory pressure
+   */
+  static void register(AbstractEhcacheCache cache) {
+    INSTANCE.add(cache);
+  }
+
+  /**
+   * Unregisters {@code cache} from the shared monitor and restores its full heap size.
+   *
+   * @param cache
+   *          the cache to stop shrinking
+   */
+  static void unregister(AbstractEhcacheCache cache) {
+    INSTANCE.remove(cache);
+  }
+
+  synchronized void add(AbstractEhcacheCache cache) {
+    install();
+    caches.removeIf(ref -> ref.get() == null || ref.get() == cache);
+    caches.add(new WeakReference<>(cache));
+    if (underPressure) {
+      cache.applyHeapScale(shrinkFactor);
+    }
+  }
+
+  synchronized void remove(AbstractEhcacheCache cache) {
+    caches.removeIf(ref -> ref.get() == null || ref.get() == cache);
+    cache.applyHeapScale(1.0);
+  }
+
+  private void install() {
+    if (installed) {
+      return;
+    }
+    installed = true;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      long max = pool.getUsage().getMax();
+      if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && max > 0) {
+        pool.setCollectionUsageThreshold((long) (max * highThreshold));
+        pools.add(pool);
+      }
+    }
+    ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, null);
+  }
+
+  @Override
+  public void handleNotification(Notification notification, Object handback) {
+    if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+      onPressure();
+    }
+  }
+
+  synchronized void onPressure() {
+    if (underPressure) {
+      return;
+    }
+    underPressure = true;
+    scaleAll(shrinkFactor);
+    recoveryCheck = CacheMaintenance.scheduleWithFixedDelay(this::checkRecovery, 1, TimeUnit.SECONDS);
+  }
+
+  synchronized void checkRecovery() {
+    for (MemoryPoolMXBean pool : pools) {
+      MemoryUsage usage = pool.getCollectionUsage();
+      if (usage != null && usage.getMax() > 0 && usage.getUsed() > usage.getMax() * lowThreshold) {
+        return;
+      }
+    }
+    onRecovery();
+  }
+
+  synchronized void onRecovery() {
+    if (!underPressure) {
+      return;
+    }
+    underPressure = false;
+    if (recoveryCheck != null) {
+      recoveryCheck.cancel(false);
+      recoveryCheck = null;
+    }
+    scaleAll(1.0);
+  }
+
+  private void scaleAll(double heapScale) {
+    for (WeakReference<AbstractEhcacheCache> ref : caches) {
+      AbstractEhcacheCache cache = ref.get();
+      if (cache == null) {
+        caches.remove(ref);
+      } else {
+        cache.applyHeapScale(heapScale);
+      }
+    }
+  }
+
+}
@@ -18,9 +18,12 @@ package org.mybatis.caches.ehcache;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.ehcache.spi.serialization.Serializer;
 import org.ehcache.spi.serialization.SerializerException;
@@ -32,9 +35,27 @@ import org.ehcache.spi.serialization.SerializerException;
  * Note: heap-only caches do not need serialization; this class is provided for configurations that add off-heap or disk
  * tiers.
  * </p>
+ * <p>
+ * Reads deserialize straight from the buffer handed over by Ehcache, without copying it first. The disk tier keeps its
+ * entries in off-heap hash tables whose pages are mapped from the segment files, so a disk hit is deserialized from
+ * the mapped pages holding the value rather than from a heap copy of them.
+ * </p>
+ * <p>
+ * Writes borrow a buffer from a small striped pool shared by all threads, so that virtual threads, which never reuse a
+ * thread-local, still reuse buffers. Pooled buffers are pre-sized from a moving average of recent value sizes, capped
+ * at {@value #MAX_RETAINED_BUFFER_SIZE} bytes, so steady-state serialization only allocates the exact-size array handed
+ * over to Ehcache.
+ * </p>
  */
 public class ObjectSerializer implements Serializer<Object> {
 
+  /** Buffers grown beyond this size are dropped after use instead of being retained by the thread. */
+  static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+
+  /** Pooled buffers, indexed by a hash of the borrowing thread; an empty slot means its buffer is borrowed. */
+  private static final AtomicReferenceArray<PooledOutputStream> BUFFERS = new AtomicReferenceArray<>(
+      Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 4));
+
   /**
    * Constructor required by Ehcache 3's serializer contract.
    *
@@ -47,21 +68,42 @@ public class ObjectSerializer implements Serializer<Object> {
 
   @Override
   public ByteBuffer serialize(Object object) throws SerializerException {
-    try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+    int slot = slotOfCurrentThread();
+    PooledOutputStream buffer = BUFFERS.getAndSet(slot, null);
+    if (buffer == null || !buffer.acquire()) {
+      // Borrowed by another thread or by a re-entrant call from a custom writeObject: use a private buffer, which is
+      // returned to the slot afterwards if the slot is still empty.
+      buffer = new PooledOutputStream();
+      buffer.acquire();
+    }
+    try (ObjectOutputStream oos = new ObjectOutputStream(buffer)) {
       oos.writeObject(object);
       oos.flush();
-      return ByteBuffer.wrap(baos.toByteArray());
+      return ByteBuffer.wrap(buffer.toExactArray());
     } catch (IOException e) {
       throw new SerializerException("Failed to serialize object", e);
+    } finally {
+      buffer.release();
+      BUFFERS.compareAndSet(slot, null, buffer);
     }
   }
 
+  private static int slotOfCurrentThread() {
+    long threadId = Thread.currentThread().getId();
+    int hash = (int) (threadId ^ threadId >>> 32) * 0x9E3779B9;
+    return (hash ^ hash >>> 16) & (BUFFERS.length() - 1);
+  }
+
   @Override
   public Object read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
-    byte[] bytes = new byte[binary.remaining()];
-    binary.get(bytes);
-    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+    InputStream in;
+    if (binary.hasArray()) {
+      in = new ByteArrayInputStream(binary.array(), binary.arrayOffset() + binary.position(), binary.remaining());
+      binary.position(binary.limit());
+    } else {
+      in = new ByteBufferInputStream(binary);
+    }
+    try (ObjectInputStream ois = new ObjectInputStream(in)) {
       return ois.readObject();
     } catch (IOException e) {
       throw new SerializerException("Failed to deserialize object", e);
@@ -73,4 +115,100 @@ public class ObjectSerializer implements Serializer<Object> {
     return object.equals(read(binary));
   }
 
+  /**
+   * Reusable output buffer that keeps its backing array between calls and sizes it from recent values.
+   */
+  static final class PooledOutputStream extends ByteArrayOutputStream {
+
+    private static final int MIN_SIZE = 256;
+
+    private int averageSize = MIN_SIZE;
+
+    private boolean inUse;
+
+    PooledOutputStream() {
+      super(MIN_SIZE);
+    }
+
+    boolean acquire() {
+      if (inUse) {
+        return false;
+      }
+      inUse = true;
+      reset();
+      if (buf.length < averageSize) {
+        buf = new byte[averageSize];
+      }
+      return true;
+    }
+
+    byte[] toExactArray() {
+      return Arrays.copyOf(buf, count);
+    }
+
+    void release() {
+      // Capped, so that a single huge value does not make the following calls pre-size huge buffers
+      averageSize = Math.min(MAX_RETAINED_BUFFER_SIZE,
+          Math.max(MIN_SIZE, averageSize + ((count - averageSize) >> 3)));
+      if (buf.length > MAX_RETAINED_BUFFER_SIZE || buf.length > 4 * averageSize) {
+        buf = new byte[Math.min(MAX_RETAINED_BUFFER_SIZE, 2 * averageSize)];
+      }
+      reset();
+      inUse = false;
+    }
+
+    @Override
+    public void close() {
+      // The buffer outlives the ObjectOutputStream wrapping it.
+    }
+
+    int capacity() {
+      return buf.length;
+    }
+
+  }
+
+  /**
+   * {@link InputStream} reading the remaining bytes of a (typically direct or memory-mapped) {@link ByteBuffer}.
+   */
+  static final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+
+    @Override
+    public long skip(long n) {
+      int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + count);
+      return count;
+    }
+
+  }
+
 }
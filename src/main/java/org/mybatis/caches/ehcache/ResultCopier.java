@@ -0,0 +1,323 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.io.Externalizable;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import org.ehcache.spi.copy.Copier;
+import org.ehcache.spi.serialization.SerializerException;
+
+/**
+ * Ehcache 3 {@link Copier} isolating the values held by the heap tier from the objects seen by callers, so that an
+ * application mutating a returned result cannot corrupt the cached entry.
+ * <p>
+ * Two strategies are available:
+ * </p>
+ * <ul>
+ * <li>{@link Mode#DEEP} copies values both when they are stored and when they are read. Array and hash based lists,
+ * sets and maps, arrays and dates are copied directly; immutable types (strings, numbers, enums, {@code java.time}
+ * values...) are shared; serializable beans, such as mapped result objects, are copied field by field by a reflective
+ * copier cached per class. Other serializable objects, including other collection types such as sorted ones, are
+ * copied through Java serialization, which keeps their concrete type and comparator, and non-serializable ones are
+ * shared as is. Shared and cyclic references within a value are preserved.</li>
+ * <li>{@link Mode#IMMUTABLE} copies values once when they are stored and hands out read-only views of lists, sets and
+ * maps when they are read, which costs no copy per hit. Only the outermost container is read-only; the result objects
+ * it contains are shared.</li>
+ * </ul>
+ */
+final class ResultCopier implements Copier<Object> {
+
+  /**
+   * Copy strategy of the heap tier.
+   */
+  enum Mode {
+    /** Values are stored by reference (Ehcache 3 default for the heap tier). */
+    NONE,
+    /** Values are deep copied on write and on read. */
+    DEEP,
+    /** Values are deep copied on write and wrapped in read-only views on read. */
+    IMMUTABLE;
+
+    static Mode parse(String mode) {
+      return mode == null ? NONE : valueOf(mode.trim().toUpperCase(Locale.ROOT));
+    }
+  }
+
+  private static final ClassValue<Optional<BeanCopier>> BEAN_COPIERS = new ClassValue<Optional<BeanCopier>>() {
+    @Override
+    protected Optional<BeanCopier> computeValue(Class<?> type) {
+      return BeanCopier.of(type);
+    }
+  };
+
+  private final Mode mode;
+  private final ObjectSerializer serializer = new ObjectSerializer(getClass().getClassLoader());
+
+  ResultCopier(Mode mode) {
+    this.mode = mode;
+  }
+
+  @Override
+  public Object copyForRead(Object obj) {
+    if (mode == Mode.IMMUTABLE) {
+      return readOnlyView(obj);
+    }
+    return deepCopy(obj);
+  }
+
+  @Override
+  public Object copyForWrite(Object obj) {
+    return deepCopy(obj);
+  }
+
+  private static Object readOnlyView(Object obj) {
+    if (obj instanceof List) {
+      return Collections.unmodifiableList((List<?>) obj);
+    }
+    if (obj instanceof Set) {
+      return Collections.unmodifiableSet((Set<?>) obj);
+    }
+    if (obj instanceof Map) {
+      return Collections.unmodifiableMap((Map<?, ?>) obj);
+    }
+    return obj;
+  }
+
+  Object deepCopy(Object obj) {
+    return deepCopy(obj, new IdentityHashMap<>());
+  }
+
+  /**
+   * Copies {@code obj}, reusing the copies already made in this graph so that shared and cyclic references are
+   * preserved.
+   */
+  private Object deepCopy(Object obj, Map<Object, Object> copies) {
+    if (obj == null || isImmutable(obj)) {
+      return obj;
+    }
+    Object copy = copies.get(obj);
+    if (copy != null) {
+      return copy;
+    }
+    Class<?> type = obj.getClass();
+    if (obj instanceof Date) {
+      copy = ((Date) obj).clone();
+    } else if (type == ArrayList.class || type == LinkedList.class) {
+      List<?> list = (List<?>) obj;
+      copy = copyElements(list, type == ArrayList.class ? new ArrayList<>(list.size()) : new LinkedList<>(), copies);
+    } else if (type == HashSet.class || type == LinkedHashSet.class) {
+      Set<?> set = (Set<?>) obj;
+      copy = copyElements(set, type == HashSet.class ? new HashSet<>(capacity(set.size()))
+          : new LinkedHashSet<>(capacity(set.size())), copies);
+    } else if (type == HashMap.class || type == LinkedHashMap.class) {
+      Map<?, ?> map = (Map<?, ?>) obj;
+      copy = copyEntries(map, type == HashMap.class ? new HashMap<>(capacity(map.size()))
+          : new LinkedHashMap<>(capacity(map.size())), copies);
+    } else if (obj instanceof Object[]) {
+      Object[] array = ((Object[]) obj).clone();
+      copies.put(obj, array);
+      for (int i = 0; i < array.length; i++) {
+        array[i] = deepCopy(array[i], copies);
+      }
+      copy = array;
+    } else if (type.isArray()) {
+      copy = clonePrimitiveArray(obj);
+    } else {
+      Optional<BeanCopier> bean = BEAN_COPIERS.get(type);
+      if (bean.isPresent()) {
+        copy = copyBean(bean.get(), obj, copies);
+      } else if (obj instanceof Serializable) {
+        // Other collection types, such as sorted ones, keep their concrete type and comparator
+        try {
+          copy = serializer.read(serializer.serialize(obj));
+        } catch (ClassNotFoundException e) {
+          throw new SerializerException("Failed to copy object", e);
+        }
+      } else if (obj instanceof List) {
+        copy = copyElements((List<?>) obj, new ArrayList<>(), copies);
+      } else if (obj instanceof Set) {
+        copy = copyElements((Set<?>) obj, new LinkedHashSet<>(), copies);
+      } else if (obj instanceof Map) {
+        copy = copyEntries((Map<?, ?>) obj, new LinkedHashMap<>(), copies);
+      } else {
+        copy = obj;
+      }
+    }
+    copies.put(obj, copy);
+    return copy;
+  }
+
+  private Collection<Object> copyElements(Collection<?> source, Collection<Object> target, Map<Object, Object> copies) {
+    copies.put(source, target);
+    for (Object element : source) {
+      target.add(deepCopy(element, copies));
+    }
+    return target;
+  }
+
+  private Map<Object, Object> copyEntries(Map<?, ?> source, Map<Object, Object> target, Map<Object, Object> copies) {
+    copies.put(source, target);
+    for (Map.Entry<?, ?> entry : source.entrySet()) {
+      target.put(deepCopy(entry.getKey(), copies), deepCopy(entry.getValue(), copies));
+    }
+    return target;
+  }
+
+  private Object copyBean(BeanCopier bean, Object obj, Map<Object, Object> copies) {
+    try {
+      Object copy = bean.constructor.newInstance();
+      copies.put(obj, copy);
+      for (Field field : bean.fields) {
+        Object value = field.get(obj);
+        field.set(copy, field.getType().isPrimitive() ? value : deepCopy(value, copies));
+      }
+      return copy;
+    } catch (ReflectiveOperationException e) {
+      throw new SerializerException("Failed to copy object", e);
+    }
+  }
+
+  private static boolean isImmutable(Object obj) {
+    if (obj instanceof String || obj instanceof Boolean || obj instanceof Character || obj instanceof Enum
+        || obj instanceof UUID || obj instanceof Class || AbstractEhcacheCache.isNegative(obj)) {
+      return true;
+    }
+    // Only trust the JDK value types; subclasses and atomic numbers are mutable
+    String typeName = obj.getClass().getName();
+    if (obj instanceof Number) {
+      return typeName.startsWith("java.lang.") || typeName.equals("java.math.BigDecimal")
+          || typeName.equals("java.math.BigInteger");
+    }
+    return obj instanceof TemporalAccessor && typeName.startsWith("java.time.");
+  }
+
+  private static Object clonePrimitiveArray(Object array) {
+    if (array instanceof byte[]) {
+      return ((byte[]) array).clone();
+    }
+    if (array instanceof char[]) {
+      return ((char[]) array).clone();
+    }
+    if (array instanceof int[]) {
+      return ((int[]) array).clone();
+    }
+    if (array instanceof long[]) {
+      return ((long[]) array).clone();
+    }
+    if (array instanceof double[]) {
+      return ((double[]) array).clone();
+    }
+    if (array instanceof float[]) {
+      return ((float[]) array).clone();
+    }
+    if (array instanceof short[]) {
+      return ((short[]) array).clone();
+    }
+    return ((boolean[]) array).clone();
+  }
+
+  private static int capacity(int size) {
+    return (int) (size / 0.75f) + 1;
+  }
+
+  /**
+   * Reflective copier of the serializable beans whose serialized form is made of their own fields, such as the result
+   * objects mapped by MyBatis, computed once per class. It creates the copy with the no-arg constructor and copies the
+   * non-transient instance fields, which is much cheaper than a serialization round trip; transient fields keep the
+   * value given by the constructor. Classes customizing their serialization, records, JDK classes and classes whose
+   * constructor or fields cannot be accessed are copied through serialization instead.
+   */
+  private static final class BeanCopier {
+    private static final Set<String> SERIALIZATION_HOOKS = new HashSet<>(
+        Arrays.asList("writeObject", "readObject", "readObjectNoData", "writeReplace", "readResolve"));
+
+    final Constructor<?> constructor;
+    final Field[] fields;
+
+    private BeanCopier(Constructor<?> constructor, Field[] fields) {
+      this.constructor = constructor;
+      this.fields = fields;
+    }
+
+    static Optional<BeanCopier> of(Class<?> type) {
+      if (!Serializable.class.isAssignableFrom(type) || Externalizable.class.isAssignableFrom(type) || type.isRecord()
+          || type.isEnum() || Modifier.isAbstract(type.getModifiers()) || type.isHidden()) {
+        return Optional.empty();
+      }
+      List<Field> fields = new ArrayList<>();
+      for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+        if (isJdkClass(c)) {
+          return Optional.empty();
+        }
+        for (Method method : c.getDeclaredMethods()) {
+          if (SERIALIZATION_HOOKS.contains(method.getName())) {
+            return Optional.empty();
+          }
+        }
+        for (Field field : c.getDeclaredFields()) {
+          int modifiers = field.getModifiers();
+          if (field.getName().equals("serialPersistentFields") && Modifier.isStatic(modifiers)) {
+            return Optional.empty();
+          }
+          if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+            continue;
+          }
+          if (!field.trySetAccessible()) {
+            return Optional.empty();
+          }
+          fields.add(field);
+        }
+      }
+      try {
+        Constructor<?> constructor = type.getDeclaredConstructor();
+        return constructor.trySetAccessible()
+            ? Optional.of(new BeanCopier(constructor, fields.toArray(new Field[0]))) : Optional.empty();
+      } catch (NoSuchMethodException | SecurityException e) {
+        return Optional.empty();
+      }
+    }
+
+    private static boolean isJdkClass(Class<?> type) {
+      String name = type.getName();
+      return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("jdk.")
+          || name.startsWith("sun.") || name.startsWith("com.sun.");
+    }
+  }
+
+}
@@ -0,0 +1,199 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cheap, approximate estimator of the heap footprint of cached values.
+ * <p>
+ * The estimate assumes a 64-bit JVM with compressed references. Collections, maps and object arrays are extrapolated
+ * from a sample of their first elements, and object graphs are only followed to a limited depth, so the cost of an
+ * estimate is bounded regardless of the size of the value. Objects whose fields cannot be made accessible are counted
+ * as a bare object header.
+ * </p>
+ */
+final class SizeEstimator {
+
+  private static final int OBJECT_HEADER = 16;
+  private static final int REFERENCE = 4;
+  private static final int MAX_DEPTH = 4;
+  private static final int SAMPLE_SIZE = 8;
+
+  private static final Field[] OPAQUE = new Field[0];
+
+  /** Instance fields of each class, made accessible; {@link #OPAQUE} when they cannot be accessed. */
+  private static final ClassValue<Field[]> FIELDS = new ClassValue<>() {
+    @Override
+    protected Field[] computeValue(Class<?> type) {
+      List<Field> fields = new ArrayList<>();
+      for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+        for (Field field : current.getDeclaredFields()) {
+          if (!Modifier.isStatic(field.getModifiers())) {
+            if (!field.trySetAccessible()) {
+              return OPAQUE;
+            }
+            fields.add(field);
+          }
+        }
+      }
+      return fields.toArray(new Field[0]);
+    }
+  };
+
+  private SizeEstimator() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Estimates the number of heap bytes retained by {@code value}.
+   *
+   * @param value
+   *          the value to measure, possibly {@code null}
+   *
+   * @return the estimated size in bytes
+   */
+  static long estimate(Object value) {
+    return estimate(value, 0);
+  }
+
+  /**
+   * Returns the number of elements of a collection, map or array value.
+   *
+   * @param value
+   *          the value to inspect
+   *
+   * @return the number of elements, or -1 if the value is not a container
+   */
+  static int elementCount(Object value) {
+    if (value instanceof Collection) {
+      return ((Collection<?>) value).size();
+    }
+    if (value instanceof Map) {
+      return ((Map<?, ?>) value).size();
+    }
+    if (value != null && value.getClass().isArray()) {
+      return Array.getLength(value);
+    }
+    return -1;
+  }
+
+  private static long estimate(Object value, int depth) {
+    if (value == null || value instanceof Enum || value instanceof Class) {
+      return 0;
+    }
+    if (value instanceof String) {
+      // String object plus its backing byte[], assuming compact (Latin-1) strings
+      return 24 + align(OBJECT_HEADER + ((String) value).length());
+    }
+    if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+      return 24;
+    }
+    if (value instanceof Date || value instanceof TemporalAccessor) {
+      return 32;
+    }
+    if (depth >= MAX_DEPTH) {
+      // Also bounds containers reaching themselves, such as a list holding itself
+      return OBJECT_HEADER;
+    }
+    if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      return 40 + (long) collection.size() * (REFERENCE + 16)
+          + sampled(collection.iterator(), collection.size(), depth);
+    }
+    if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      long size = 48 + (long) map.size() * 36;
+      Iterator<? extends Map.Entry<?, ?>> entries = map.entrySet().iterator();
+      long sampledBytes = 0;
+      int sampled = 0;
+      while (sampled < SAMPLE_SIZE && entries.hasNext()) {
+        Map.Entry<?, ?> entry = entries.next();
+        sampledBytes += estimate(entry.getKey(), depth + 1) + estimate(entry.getValue(), depth + 1);
+        sampled++;
+      }
+      return sampled == 0 ? size : size + sampledBytes * map.size() / sampled;
+    }
+    Class<?> type = value.getClass();
+    if (type.isArray()) {
+      int length = Array.getLength(value);
+      Class<?> componentType = type.getComponentType();
+      if (componentType.isPrimitive()) {
+        return align(OBJECT_HEADER + (long) length * primitiveSize(componentType));
+      }
+      Object[] array = (Object[]) value;
+      return align(OBJECT_HEADER + (long) length * REFERENCE) + sampled(Arrays.asList(array).iterator(), length, depth);
+    }
+    return estimateFields(value, type, depth);
+  }
+
+  private static long estimateFields(Object value, Class<?> type, int depth) {
+    long shallow = OBJECT_HEADER;
+    long retained = 0;
+    for (Field field : FIELDS.get(type)) {
+      Class<?> fieldType = field.getType();
+      if (fieldType.isPrimitive()) {
+        shallow += primitiveSize(fieldType);
+      } else {
+        shallow += REFERENCE;
+        try {
+          retained += estimate(field.get(value), depth + 1);
+        } catch (IllegalAccessException e) {
+          // Field made accessible above; count the reference only
+        }
+      }
+    }
+    return align(shallow) + retained;
+  }
+
+  private static long sampled(Iterator<?> elements, int size, int depth) {
+    long sampledBytes = 0;
+    int sampled = 0;
+    while (sampled < SAMPLE_SIZE && elements.hasNext()) {
+      sampledBytes += estimate(elements.next(), depth + 1);
+      sampled++;
+    }
+    return sampled == 0 ? 0 : sampledBytes * size / sampled;
+  }
+
+  private static int primitiveSize(Class<?> type) {
+    if (type == long.class || type == double.class) {
+      return 8;
+    }
+    if (type == int.class || type == float.class) {
+      return 4;
+    }
+    if (type == short.class || type == char.class) {
+      return 2;
+    }
+    return 1;
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+}
@@ -0,0 +1,74 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+import org.apache.ibatis.cache.CacheKey;
+
+/**
+ * Extracts the id of the mapped statement a MyBatis {@link CacheKey} was created for.
+ * <p>
+ * MyBatis executors always make the statement id the first component of a query cache key. {@link CacheKey} does not
+ * expose its components, so they are read reflectively when possible, falling back to parsing
+ * {@link CacheKey#toString()} (which renders the hash code, the checksum and then the components, separated by
+ * colons).
+ * </p>
+ */
+final class StatementIds {
+
+  /** The {@code updateList} field of {@link CacheKey}, or {@code null} if it cannot be accessed. */
+  private static final Field UPDATE_LIST = findUpdateList();
+
+  private StatementIds() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Returns the statement id of a cache key.
+   *
+   * @param key
+   *          the (unwrapped) cache key
+   *
+   * @return the statement id, or {@code null} if the key is not a MyBatis {@link CacheKey}
+   */
+  static String of(Object key) {
+    if (!(key instanceof CacheKey)) {
+      return null;
+    }
+    if (UPDATE_LIST != null) {
+      try {
+        List<?> components = (List<?>) UPDATE_LIST.get(key);
+        return components.isEmpty() ? null : String.valueOf(components.get(0));
+      } catch (IllegalAccessException e) {
+        // Fall back to parsing the string representation
+      }
+    }
+    String[] parts = key.toString().split(":", 4);
+    return parts.length > 2 ? parts[2] : null;
+  }
+
+  private static Field findUpdateList() {
+    try {
+      Field field = CacheKey.class.getDeclaredField("updateList");
+      return field.trySetAccessible() ? field : null;
+    } catch (NoSuchFieldException | SecurityException e) {
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,78 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Matches statement ids against a comma-separated list of patterns. A pattern is either an exact statement id, such as
+ * {@code org.acme.FooMapper.selectAll}, or a prefix followed by {@code *}, such as {@code org.acme.FooMapper.report*}.
+ */
+final class StatementMatcher {
+
+  private final Set<String> ids = new HashSet<>();
+  private final List<String> prefixes = new ArrayList<>();
+
+  private StatementMatcher(String patterns) {
+    for (String pattern : patterns.split(",")) {
+      String trimmed = pattern.trim();
+      if (trimmed.endsWith("*")) {
+        prefixes.add(trimmed.substring(0, trimmed.length() - 1));
+      } else if (!trimmed.isEmpty()) {
+        ids.add(trimmed);
+      }
+    }
+  }
+
+  /**
+   * Parses a comma-separated list of patterns.
+   *
+   * @param patterns
+   *          the patterns, possibly {@code null}
+   *
+   * @return the matcher, or {@code null} if no pattern was given
+   */
+  static StatementMatcher parse(String patterns) {
+    if (patterns == null || patterns.trim().isEmpty()) {
+      return null;
+    }
+    return new StatementMatcher(patterns);
+  }
+
+  /**
+   * Returns whether {@code statementId} matches any of the patterns.
+   *
+   * @param statementId
+   *          the statement id to test
+   *
+   * @return true if the statement id matches
+   */
+  boolean matches(String statementId) {
+    if (ids.contains(statementId)) {
+      return true;
+    }
+    for (String prefix : prefixes) {
+      if (statementId.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
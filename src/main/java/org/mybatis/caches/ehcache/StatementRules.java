@@ -0,0 +1,107 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps statement ids to numeric values, from a comma-separated list of {@code pattern=value} rules. A pattern is either
+ * an exact statement id, such as {@code org.acme.FooMapper.selectAll}, or a prefix followed by {@code *}, such as
+ * {@code org.acme.FooMapper.report*}. Exact ids take precedence over prefixes, and longer prefixes over shorter ones.
+ */
+final class StatementRules {
+
+  private final Map<String, Double> ids = new HashMap<>();
+
+  /** Prefix rules, longest prefix first. */
+  private final Map<String, Double> prefixes = new TreeMap<>((a, b) -> a.length() != b.length()
+      ? Integer.compare(b.length(), a.length()) : a.compareTo(b));
+
+  private StatementRules(String property, String rules) {
+    for (String rule : rules.split(",")) {
+      String trimmed = rule.trim();
+      if (trimmed.isEmpty()) {
+        continue;
+      }
+      int separator = trimmed.lastIndexOf('=');
+      if (separator <= 0) {
+        throw new IllegalArgumentException(
+            "Invalid rule '" + trimmed + "' in property '" + property + "', expected statement=value");
+      }
+      String pattern = trimmed.substring(0, separator).trim();
+      double value;
+      try {
+        value = Double.parseDouble(trimmed.substring(separator + 1).trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException(
+            "Invalid value in rule '" + trimmed + "' of property '" + property + "'", e);
+      }
+      if (value < 0) {
+        throw new IllegalArgumentException(
+            "Rule '" + trimmed + "' of property '" + property + "' must not have a negative value");
+      }
+      if (pattern.endsWith("*")) {
+        prefixes.put(pattern.substring(0, pattern.length() - 1), value);
+      } else {
+        ids.put(pattern, value);
+      }
+    }
+  }
+
+  /**
+   * Parses a comma-separated list of rules.
+   *
+   * @param property
+   *          the name of the property holding the rules, for error messages
+   * @param rules
+   *          the rules, possibly {@code null}
+   *
+   * @return the rules, or {@code null} if no rule was given
+   *
+   * @throws IllegalArgumentException
+   *           if a rule is malformed
+   */
+  static StatementRules parse(String property, String rules) {
+    if (rules == null || rules.trim().isEmpty()) {
+      return null;
+    }
+    return new StatementRules(property, rules);
+  }
+
+  /**
+   * Returns the value of the most specific rule matching {@code statementId}.
+   *
+   * @param statementId
+   *          the statement id
+   *
+   * @return the value, or {@code null} if no rule matches
+   */
+  Double valueFor(String statementId) {
+    Double value = ids.get(statementId);
+    if (value != null) {
+      return value;
+    }
+    for (Map.Entry<String, Double> prefix : prefixes.entrySet()) {
+      if (statementId.startsWith(prefix.getKey())) {
+        return prefix.getValue();
+      }
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,200 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline simulator replaying an access trace recorded with the {@code traceFile} cache property against caches of
+ * different sizes, eviction policies and times to live, to draw the miss-ratio curve of a namespace.
+ * <p>
+ * Since traces are spatially sampled, each simulated cache is scaled down by the sample rate of the trace: a cache of
+ * 10000 entries replaying a 1% trace holds 100 sampled keys. All the sizes are simulated in a single pass over the
+ * trace. Lookups found in a simulated cache are hits; misses are expected to be followed by the put of the loaded
+ * value, as MyBatis does.
+ * </p>
+ */
+public final class TraceSimulator {
+
+  private TraceSimulator() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Replays a trace against caches of the given sizes.
+   *
+   * @param trace
+   *          the trace file
+   * @param policy
+   *          the eviction policy, {@code lru} or {@code fifo}
+   * @param sizes
+   *          the sizes of the simulated caches, in entries, before scaling by the sample rate
+   * @param ttlSeconds
+   *          the time to live of the entries, or 0 for no expiry
+   *
+   * @return the result for each size, in the given order
+   *
+   * @throws IOException
+   *           if the trace cannot be read or is not a trace file
+   */
+  public static List<Result> simulate(Path trace, String policy, long[] sizes, long ttlSeconds) throws IOException {
+    boolean lru;
+    if ("lru".equalsIgnoreCase(policy)) {
+      lru = true;
+    } else if ("fifo".equalsIgnoreCase(policy)) {
+      lru = false;
+    } else {
+      throw new IllegalArgumentException("Unknown eviction policy " + policy + ", expected lru or fifo");
+    }
+    long ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(trace), 64 * 1024))) {
+      if (in.readInt() != AccessTraceRecorder.MAGIC || in.readInt() != AccessTraceRecorder.VERSION) {
+        throw new IOException(trace + " is not an access trace");
+      }
+      double sampleRate = in.readDouble();
+      List<SimulatedCache> caches = new ArrayList<>(sizes.length);
+      for (long size : sizes) {
+        caches.add(new SimulatedCache(size, Math.max(1, Math.round(size * sampleRate)), lru));
+      }
+      while (true) {
+        long time;
+        try {
+          time = in.readLong();
+        } catch (EOFException e) {
+          break;
+        }
+        byte operation = in.readByte();
+        int keyHash = in.readInt();
+        in.readInt(); // value size, unused by entry-based simulations
+        for (SimulatedCache cache : caches) {
+          cache.apply(operation, keyHash, time, ttlNanos);
+        }
+      }
+      List<Result> results = new ArrayList<>(caches.size());
+      for (SimulatedCache cache : caches) {
+        results.add(new Result(policy.toUpperCase(Locale.ROOT), cache.nominalSize, cache.lookups, cache.misses));
+      }
+      return results;
+    }
+  }
+
+  /**
+   * The outcome of the simulation of one cache size.
+   */
+  public static final class Result {
+
+    private final String policy;
+    private final long size;
+    private final long lookups;
+    private final long misses;
+
+    Result(String policy, long size, long lookups, long misses) {
+      this.policy = policy;
+      this.size = size;
+      this.lookups = lookups;
+      this.misses = misses;
+    }
+
+    public String getPolicy() {
+      return policy;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public long getLookups() {
+      return lookups;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    public double getMissRatio() {
+      return lookups == 0 ? 0 : (double) misses / lookups;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%s size=%d lookups=%d missRatio=%.4f", policy, size, lookups,
+          getMissRatio());
+    }
+  }
+
+  /**
+   * A cache of sampled key hashes mapped to their expiry time.
+   */
+  private static final class SimulatedCache extends LinkedHashMap<Integer, Long> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long nominalSize;
+    private final long capacity;
+    private long lookups;
+    private long misses;
+
+    SimulatedCache(long nominalSize, long capacity, boolean lru) {
+      super(16, 0.75f, lru);
+      this.nominalSize = nominalSize;
+      this.capacity = capacity;
+    }
+
+    void apply(byte operation, int keyHash, long time, long ttlNanos) {
+      switch (operation) {
+        case AccessTraceRecorder.HIT:
+        case AccessTraceRecorder.MISS:
+          lookups++;
+          Long expiry = get(keyHash);
+          if (expiry == null || expiry <= time) {
+            misses++;
+            if (expiry != null) {
+              remove(keyHash);
+            }
+          }
+          break;
+        case AccessTraceRecorder.PUT:
+          put(keyHash, ttlNanos > 0 ? time + ttlNanos : Long.MAX_VALUE);
+          break;
+        case AccessTraceRecorder.REMOVE:
+          remove(keyHash);
+          break;
+        case AccessTraceRecorder.CLEAR:
+          clear();
+          break;
+        default:
+          throw new IllegalStateException("Corrupted trace: unknown operation " + operation);
+      }
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+      return size() > capacity;
+    }
+  }
+
+}
@@ -26,7 +26,15 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 
 import org.ehcache.spi.serialization.SerializerException;
@@ -63,6 +71,87 @@ class AdditionalCoverageTest {
     assertFalse(serializer.equals(new SampleValue("other", 7), serialized.duplicate()));
   }
 
+  @Test
+  void objectSerializerReadsDirectBuffersWithoutCopy() throws Exception {
+    ObjectSerializer serializer = new ObjectSerializer(getClass().getClassLoader());
+    SampleValue value = new SampleValue("direct", 3);
+    ByteBuffer serialized = serializer.serialize(value);
+    ByteBuffer direct = ByteBuffer.allocateDirect(serialized.remaining() + 4);
+    direct.putInt(42).put(serialized).flip();
+    direct.getInt();
+
+    assertEquals(value, serializer.read(direct));
+    assertFalse(direct.hasRemaining());
+  }
+
+  @Test
+  void objectSerializerReusesBoundedPooledBuffer() throws Exception {
+    ObjectSerializer serializer = new ObjectSerializer(getClass().getClassLoader());
+    byte[] large = new byte[ObjectSerializer.MAX_RETAINED_BUFFER_SIZE * 2];
+    large[large.length - 1] = 9;
+
+    byte[] copy = (byte[]) serializer.read(serializer.serialize(large));
+    assertEquals(9, copy[copy.length - 1]);
+    for (int i = 0; i < 20; i++) {
+      SampleValue value = new SampleValue("name" + i, i);
+      ByteBuffer serialized = serializer.serialize(value);
+      assertEquals(serialized.capacity(), serialized.remaining());
+      assertEquals(value, serializer.read(serialized));
+    }
+
+    ObjectSerializer.PooledOutputStream buffer = new ObjectSerializer.PooledOutputStream();
+    assertTrue(buffer.acquire());
+    assertFalse(buffer.acquire());
+    buffer.write(large, 0, large.length);
+    buffer.release();
+    assertTrue(buffer.capacity() <= ObjectSerializer.MAX_RETAINED_BUFFER_SIZE);
+  }
+
+  @Test
+  void objectSerializerSharesPooledBuffersAcrossThreads() throws Exception {
+    ObjectSerializer serializer = new ObjectSerializer(getClass().getClassLoader());
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 64; t++) {
+        int thread = t;
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 200; i++) {
+            SampleValue value = new SampleValue("name" + thread, i);
+            assertEquals(value, serializer.read(serializer.serialize(value)));
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void objectSerializerDoesNotPresizeFromHugeValues() {
+    ObjectSerializer.PooledOutputStream buffer = new ObjectSerializer.PooledOutputStream();
+    byte[] huge = new byte[ObjectSerializer.MAX_RETAINED_BUFFER_SIZE * 20];
+    buffer.acquire();
+    buffer.write(huge, 0, huge.length);
+    buffer.release();
+
+    byte[] small = new byte[100];
+    buffer.acquire();
+    int capacity = buffer.capacity();
+    assertTrue(capacity <= ObjectSerializer.MAX_RETAINED_BUFFER_SIZE);
+    for (int i = 0; i < 20; i++) {
+      buffer.write(small, 0, small.length);
+      buffer.release();
+      buffer.acquire();
+      assertTrue(buffer.capacity() <= capacity);
+    }
+    buffer.release();
+  }
+
   @Test
   void objectSerializerThrowsForNonSerializableObject() {
     ObjectSerializer serializer = new ObjectSerializer(getClass().getClassLoader());
@@ -85,6 +174,106 @@ class AdditionalCoverageTest {
     assertNull(cache.getReadWriteLock());
   }
 
+  @Test
+  void cacheManagersRegisterHeapOnlyCachesWithoutDiskTier() {
+    AbstractEhcacheCache cache = new EhcacheCache("HEAP_ONLY_MANAGER");
+    cache.putObject("key", "value");
+
+    assertSame(cache.getOrCreateCache(), CacheManagers.getCache("HEAP_ONLY_MANAGER"));
+    assertSame(CacheManagers.get(false).getCache("HEAP_ONLY_MANAGER", Object.class, Object.class),
+        CacheManagers.getCache("HEAP_ONLY_MANAGER"));
+    assertDoesNotThrow(() -> CacheManagers.removeCache("UNKNOWN_ALIAS"));
+    assertNull(CacheManagers.getCache("UNKNOWN_ALIAS"));
+  }
+
+  @Test
+  void diskTierCircuitBreakerOpensOnSlowOperationsAndRecoversAfterProbe() throws Exception {
+    EhcacheStatistics statistics = new EhcacheStatistics();
+    AtomicLong clock = new AtomicLong();
+    DiskTierCircuitBreaker breaker = new DiskTierCircuitBreaker(10, 2, 1000, 50, statistics, clock::get);
+    long slow = TimeUnit.MILLISECONDS.toNanos(20);
+
+    assertTrue(breaker.allowRequest());
+    breaker.record(slow, false);
+    for (int i = 0; i < 100; i++) {
+      // Fast heap hits do not hide the slow operations
+      breaker.record(0, false);
+    }
+    assertFalse(breaker.isOpen());
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+    breaker.record(0, true);
+    assertTrue(breaker.isOpen());
+    assertFalse(breaker.allowRequest());
+    assertEquals(1, statistics.getDiskCircuitOpenings());
+
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(60));
+    // An operation admitted before the breaker opened does not close it
+    breaker.record(0, false);
+    assertTrue(breaker.isOpen());
+    Thread other = new Thread(() -> assertTrue(breaker.allowRequest()));
+    other.start();
+    other.join();
+    assertFalse(breaker.allowRequest());
+    breaker.record(0, false);
+    assertTrue(breaker.isOpen());
+  }
+
+  @Test
+  void diskTierCircuitBreakerForgetsFailuresOutsideWindowAndClosesOnProbe() {
+    EhcacheStatistics statistics = new EhcacheStatistics();
+    AtomicLong clock = new AtomicLong();
+    DiskTierCircuitBreaker breaker = new DiskTierCircuitBreaker(10, 2, 1000, 50, statistics, clock::get);
+
+    breaker.record(0, true);
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1500));
+    breaker.record(0, true);
+    assertFalse(breaker.isOpen());
+    breaker.record(0, true);
+    assertTrue(breaker.isOpen());
+
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(60));
+    assertTrue(breaker.allowRequest());
+    breaker.record(0, true);
+    assertTrue(breaker.isOpen());
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(60));
+    assertTrue(breaker.allowRequest());
+    breaker.record(0, false);
+    assertFalse(breaker.isOpen());
+    breaker.record(0, true);
+    assertFalse(breaker.isOpen());
+  }
+
+  @Test
+  void sizeEstimatorStopsOnContainersReachingThemselves() {
+    List<Object> list = new ArrayList<>();
+    list.add(list);
+    Map<String, Object> map = new HashMap<>();
+    map.put("self", map);
+    Object[] array = new Object[1];
+    array[0] = array;
+
+    assertTrue(SizeEstimator.estimate(list) > 0);
+    assertTrue(SizeEstimator.estimate(map) > 0);
+    assertTrue(SizeEstimator.estimate(array) > 0);
+  }
+
+  @Test
+  void sizeEstimatorScalesWithContent() {
+    List<SampleValue> small = new ArrayList<>();
+    List<SampleValue> large = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      large.add(new SampleValue("name" + i, i));
+    }
+    small.add(new SampleValue("name", 1));
+
+    assertEquals(0, SizeEstimator.estimate(null));
+    assertTrue(SizeEstimator.estimate(new SampleValue("name", 1)) > 0);
+    assertTrue(SizeEstimator.estimate(large) > 100 * SizeEstimator.estimate(small));
+    assertEquals(1000, SizeEstimator.elementCount(large));
+    assertEquals(3, SizeEstimator.elementCount(new int[3]));
+    assertEquals(-1, SizeEstimator.elementCount("value"));
+  }
+
   private static final class SampleValue implements Serializable {
     private static final long serialVersionUID = 1L;
     private final String name;
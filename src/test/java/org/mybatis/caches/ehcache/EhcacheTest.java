@@ -19,9 +19,32 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.ehcache.event.EventType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -134,6 +157,758 @@ class EhcacheTest {
     assertNotNull(cache.getObject("key3"));
   }
 
+  @Test
+  void shouldTuneDiskTierConcurrency() {
+    AbstractEhcacheCache disk = new EhcacheCache("DISK_TUNED");
+    disk.setMaxEntriesLocalHeap(10);
+    disk.setMaxBytesLocalDisk(10 * 1024 * 1024);
+    disk.setDiskSegments(4);
+    disk.setDiskWriterConcurrency(2);
+    disk.initialize();
+    for (int i = 0; i < 100; i++) {
+      disk.putObject(i, "value" + i);
+    }
+    assertEquals("value0", disk.getObject(0));
+
+    AbstractEhcacheCache invalid = new EhcacheCache("DISK_INVALID");
+    invalid.setMaxBytesLocalDisk(10 * 1024 * 1024);
+    invalid.setDiskSegments(4);
+    invalid.setDiskWriterConcurrency(8);
+    assertThrows(IllegalArgumentException.class, invalid::initialize);
+  }
+
+  @Test
+  void shouldSupportBulkOperations() {
+    Map<Object, Object> entries = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      entries.put(i, i);
+    }
+    entries.put("null", null);
+    cache.putAll(entries);
+
+    Map<Object, Object> hits = cache.getAll(Arrays.asList(0, 99, "null", "missing"));
+    assertEquals(3, hits.size());
+    assertEquals(99, hits.get(99));
+    assertTrue(hits.containsKey("null"));
+    assertNull(hits.get("null"));
+    assertFalse(hits.containsKey("missing"));
+
+    cache.removeAll(Arrays.asList(0, 99));
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(99));
+    assertEquals(1, cache.getObject(1));
+  }
+
+  @Test
+  void shouldApplyPerEntryRulesToBulkOperations() throws Exception {
+    AbstractEhcacheCache bulk = new EhcacheCache("BULK_RULES");
+    bulk.setRejectStalePuts(true);
+    bulk.setMaxCollectionSize(1);
+    assertTrue(bulk.getAll(Arrays.asList("stale", "fresh")).isEmpty());
+    assertEquals(2, bulk.getStatistics().getMisses());
+
+    Thread remover = new Thread(() -> bulk.removeAll(Collections.singleton("stale")));
+    remover.start();
+    remover.join();
+    Map<Object, Object> entries = new HashMap<>();
+    entries.put("stale", "value");
+    entries.put("fresh", "value");
+    entries.put("oversized", Arrays.asList(1, 2));
+    bulk.putAll(entries);
+
+    assertEquals(Collections.singletonMap("fresh", "value"), bulk.getAll(Arrays.asList("stale", "fresh")));
+    assertEquals(1, bulk.getStatistics().getHits());
+    assertEquals(1, bulk.getStatistics().getStalePuts());
+    assertEquals(1, bulk.getStatistics().getRejectedPuts());
+  }
+
+  @Test
+  void shouldProtectExpensiveEntriesFromEviction() {
+    AbstractEhcacheCache costAware = new EhcacheCache("COST_AWARE");
+    costAware.setMaxEntriesLocalHeap(2);
+    costAware.setExpensiveLoadMillis(5);
+    assertNull(costAware.getObject("expensive"));
+    CacheClock.advance(20, TimeUnit.MILLISECONDS);
+    costAware.putObject("expensive", "expensive");
+    for (int i = 0; i < 10; i++) {
+      costAware.putObject(i, i);
+    }
+    assertEquals("expensive", costAware.getObject("expensive"));
+  }
+
+  @Test
+  void shouldProtectExpensiveEntriesInTheHeapOfADiskTier() {
+    AbstractEhcacheCache costAware = new EhcacheCache("COST_AWARE_DISK");
+    costAware.setMaxEntriesLocalHeap(2);
+    costAware.setMaxBytesLocalDisk(10 * 1024 * 1024);
+    costAware.setExpensiveLoadMillis(5);
+    assertNull(costAware.getObject("expensive"));
+    CacheClock.advance(20, TimeUnit.MILLISECONDS);
+    costAware.putObject("expensive", "expensive");
+    // The put goes to the disk tier; the first hit faults the entry into the heap under the key of the lookup
+    costAware.getObject("expensive");
+    Object heapExpensive = costAware.getObject("expensive");
+    for (int i = 0; i < 10; i++) {
+      costAware.putObject(i, "cheap" + i);
+      costAware.getObject(i);
+    }
+
+    // Entries kept in the heap are returned by reference, entries faulted in again are deserialized anew
+    assertSame(heapExpensive, costAware.getObject("expensive"));
+  }
+
+  @Test
+  void shouldForgetTheCostOfEntriesPutAgainWithoutLoad() {
+    LoadCostTable costs = new LoadCostTable(1024);
+    HashKeyWrapper expensive = new HashKeyWrapper("expensive");
+    costs.record(expensive.hashCode(), 20);
+    assertEquals(20, costs.costOf(expensive.hashCode()));
+    assertEquals(0, costs.costOf(new HashKeyWrapper("cheap").hashCode()));
+    // An update keeps the key of the first put in the heap tier, so the cost must not stay with the key
+    costs.record(expensive.hashCode(), 0);
+    assertEquals(0, costs.costOf(expensive.hashCode()));
+
+    // Keys sharing a slot never see each other's cost
+    costs.record(1, 30);
+    costs.record(1 + 1024, 0);
+    assertEquals(30, costs.costOf(1));
+    assertEquals(0, costs.costOf(1 + 1024));
+  }
+
+  @Test
+  void shouldApplyExpensiveTimeToLive() {
+    AbstractEhcacheCache costAware = new EhcacheCache("COST_AWARE_TTL");
+    costAware.setTimeToLiveSeconds(1);
+    costAware.setExpensiveLoadMillis(5);
+    costAware.setExpensiveTimeToLiveSeconds(60);
+    assertNull(costAware.getObject("expensive"));
+    CacheClock.advance(20, TimeUnit.MILLISECONDS);
+    costAware.putObject("expensive", "expensive");
+    costAware.putObject("cheap", "cheap");
+    CacheClock.advance(1200, TimeUnit.MILLISECONDS);
+    assertEquals("expensive", costAware.getObject("expensive"));
+    assertNull(costAware.getObject("cheap"));
+  }
+
+  @Test
+  void shouldShrinkHeapUnderMemoryPressure() {
+    AbstractEhcacheCache shrinking = new EhcacheCache("SHRINKING");
+    shrinking.setMaxEntriesLocalHeap(10);
+    MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.85, 0.70, 0.5);
+    monitor.add(shrinking);
+
+    monitor.onPressure();
+    for (int i = 0; i < 100; i++) {
+      shrinking.putObject(i, i);
+    }
+    assertEquals(5, shrinking.getSize());
+
+    monitor.onRecovery();
+    for (int i = 0; i < 100; i++) {
+      shrinking.putObject(i, i);
+    }
+    assertEquals(10, shrinking.getSize());
+    monitor.remove(shrinking);
+  }
+
+  @Test
+  void shouldSpreadEntriesAcrossShards() {
+    AbstractEhcacheCache sharded = new EhcacheCache("SHARDED");
+    sharded.setShards(4);
+    for (int i = 0; i < 1000; i++) {
+      sharded.putObject(i, i);
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, sharded.getObject(i));
+    }
+    assertEquals(1000, sharded.getSize());
+    assertEquals(3, sharded.getAll(Arrays.asList(1, 500, 999)).size());
+    sharded.clear();
+    assertEquals(0, sharded.getSize());
+  }
+
+  @Test
+  void shouldSizeShardsIndependently() {
+    AbstractEhcacheCache sharded = new EhcacheCache("SHARDED_BOUNDED");
+    sharded.setShards(4);
+    sharded.setMaxEntriesLocalHeap(100);
+    for (int i = 0; i < 1000; i++) {
+      sharded.putObject(i, i);
+    }
+    assertTrue(sharded.getSize() <= 100);
+    assertThrows(IllegalArgumentException.class, () -> sharded.setShards(0));
+  }
+
+  @Test
+  void shouldGrantMoreBudgetToBusierNamespaces() {
+    GlobalHeapBudget budget = new GlobalHeapBudget(1000, 0);
+    AbstractEhcacheCache busy = new EhcacheCache("BUDGET_BUSY");
+    AbstractEhcacheCache idle = new EhcacheCache("BUDGET_IDLE");
+    budget.join(busy);
+    budget.join(idle);
+    for (int i = 0; i < 100; i++) {
+      assertNull(busy.getObject(i));
+    }
+    assertEquals(100, busy.getStatistics().getMisses());
+
+    Map<AbstractEhcacheCache, Long> shares = budget.computeShares();
+    assertTrue(shares.get(busy) > shares.get(idle));
+  }
+
+  @Test
+  void shouldNeverAllocateMoreThanTheBudget() {
+    GlobalHeapBudget budget = new GlobalHeapBudget(1000, 0);
+    List<AbstractEhcacheCache> caches = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      AbstractEhcacheCache participant = new EhcacheCache("BUDGET_" + i);
+      caches.add(participant);
+      budget.join(participant);
+      assertTrue(budget.allocated() <= 1000);
+    }
+    assertTrue(budget.allocated() > 900);
+
+    for (int i = 0; i < 50; i++) {
+      budget.leave(caches.get(i));
+      assertTrue(budget.allocated() <= 1000);
+    }
+    assertTrue(budget.allocated() > 900);
+  }
+
+  @Test
+  void shouldBuildCacheOnceOnInitialize() {
+    AbstractEhcacheCache initialized = new EhcacheCache("INITIALIZED");
+    initialized.setMaxEntriesLocalHeap(10);
+    initialized.setTimeToLiveSeconds(60);
+    assertNull(initialized.cache);
+    initialized.initialize();
+    assertNotNull(initialized.cache);
+    assertSame(initialized.cache, initialized.getOrCreateCache());
+  }
+
+  @Test
+  void shouldRejectInvalidPropertiesOnInitialize() {
+    AbstractEhcacheCache invalid = new EhcacheCache("INVALID");
+    invalid.setMaxEntriesLocalHeap(-1);
+    assertThrows(IllegalArgumentException.class, invalid::initialize);
+  }
+
+  @Test
+  void shouldRejectOversizedResults() {
+    AbstractEhcacheCache admission = new EhcacheCache("ADMISSION");
+    admission.setMaxCollectionSize(10);
+    admission.setMaxEntryBytes(10_000);
+    admission.putObject("small", new ArrayList<>(Arrays.asList(1, 2, 3)));
+    admission.putObject("long", new ArrayList<>(Collections.nCopies(11, 1)));
+    admission.putObject("large", new String(new char[20_000]));
+
+    assertNotNull(admission.getObject("small"));
+    assertNull(admission.getObject("long"));
+    assertNull(admission.getObject("large"));
+    assertEquals(2, admission.getStatistics().getRejectedPuts());
+  }
+
+  @Test
+  void shouldApplyStatementAdmissionRules() {
+    AbstractEhcacheCache admission = new EhcacheCache("STATEMENT_ADMISSION");
+    admission.setAdmittedStatements("org.acme.FooMapper.*");
+    admission.setRejectedStatements("org.acme.FooMapper.report");
+    CacheKey select = new CacheKey(new Object[] { "org.acme.FooMapper.select", 1 });
+    CacheKey report = new CacheKey(new Object[] { "org.acme.FooMapper.report", 1 });
+    CacheKey other = new CacheKey(new Object[] { "org.acme.BarMapper.select", 1 });
+    admission.putObject(select, "select");
+    admission.putObject(report, "report");
+    admission.putObject(other, "other");
+    admission.putObject("plain", "plain");
+
+    assertEquals("select", admission.getObject(select));
+    assertNull(admission.getObject(report));
+    assertNull(admission.getObject(other));
+    assertEquals("plain", admission.getObject("plain"));
+    assertEquals(2, admission.getStatistics().getRejectedPuts());
+  }
+
+  @Test
+  void shouldStoreEmptyListsAsSharedPlaceholder() {
+    cache.putObject("empty", new ArrayList<>());
+    Object first = cache.getObject("empty");
+    Object second = cache.getObject("empty");
+    assertEquals(new ArrayList<>(), first);
+    assertNotSame(first, second);
+  }
+
+  @Test
+  void shouldKeepNegativeResultsInTheirOwnStore() {
+    AbstractEhcacheCache negative = new EhcacheCache("NEGATIVE");
+    negative.setMaxEntriesLocalHeap(10);
+    negative.setMaxNegativeEntries(2);
+    negative.setNegativeTimeToLiveSeconds(1);
+    negative.putObject("null", null);
+    negative.putObject("empty", new ArrayList<>());
+    for (int i = 0; i < 10; i++) {
+      negative.putObject(i, i);
+    }
+    assertEquals(12, negative.getSize());
+    assertTrue(negative.getAll(Arrays.asList("null", "empty")).containsKey("null"));
+    assertEquals(new ArrayList<>(), negative.getObject("empty"));
+
+    negative.putObject("empty", "found");
+    assertEquals("found", negative.getObject("empty"));
+    negative.putObject(0, null);
+    negative.putAll(Collections.singletonMap(1, null));
+
+    CacheClock.advance(1200, TimeUnit.MILLISECONDS);
+    assertNull(negative.getObject("null"));
+    assertNull(negative.getObject(0));
+    assertNull(negative.getObject(1));
+    assertEquals(9, negative.getSize());
+  }
+
+  @Test
+  void shouldSweepOnlyDueEntries() {
+    AtomicLong clock = new AtomicLong();
+    List<Object> checked = new ArrayList<>();
+    ExpirySweeper sweeper = new ExpirySweeper(key -> {
+      checked.add(key.getKey());
+      return false;
+    }, 3_600_000, 1000, 1000, clock::get);
+    sweeper.track(new HashKeyWrapper("due"), 1000, false);
+    sweeper.track(new HashKeyWrapper("later"), 3_600_000, false);
+    assertEquals(2, sweeper.getTrackedEntries());
+
+    sweeper.sweep();
+    assertTrue(checked.isEmpty());
+    clock.set(TimeUnit.SECONDS.toNanos(1));
+    sweeper.sweep();
+    assertEquals(Arrays.asList("due"), checked);
+    assertEquals(1, sweeper.getTrackedEntries());
+    sweeper.reset();
+    assertEquals(0, sweeper.getTrackedEntries());
+    sweeper.cancel();
+  }
+
+  @Test
+  void shouldSweepIdleEntriesAgainWhileTheyAreRead() {
+    AtomicLong clock = new AtomicLong();
+    Set<Object> present = new HashSet<>(Arrays.asList("idle", "live"));
+    List<Object> checked = new ArrayList<>();
+    ExpirySweeper sweeper = new ExpirySweeper(key -> {
+      checked.add(key.getKey());
+      return present.contains(key.getKey());
+    }, 3_600_000, 1000, 1000, clock::get);
+    sweeper.track(new HashKeyWrapper("idle"), 1000, true);
+    sweeper.track(new HashKeyWrapper("live"), 1000, false);
+
+    clock.set(TimeUnit.SECONDS.toNanos(1));
+    sweeper.sweep();
+    assertEquals(Arrays.asList("idle", "live"), checked);
+    assertEquals(1, sweeper.getTrackedEntries());
+
+    checked.clear();
+    clock.set(TimeUnit.MILLISECONDS.toNanos(1999));
+    sweeper.sweep();
+    assertTrue(checked.isEmpty());
+    clock.set(TimeUnit.SECONDS.toNanos(2));
+    present.remove("idle");
+    sweeper.sweep();
+    assertEquals(Arrays.asList("idle"), checked);
+    assertEquals(0, sweeper.getTrackedEntries());
+    sweeper.cancel();
+  }
+
+  @Test
+  void shouldStopSweepingWhenTheBudgetIsSpent() {
+    AtomicLong clock = new AtomicLong();
+    List<Object> checked = new ArrayList<>();
+    ExpirySweeper sweeper = new ExpirySweeper(key -> {
+      clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+      checked.add(key.getKey());
+      return false;
+    }, 3_600_000, 1000, 2, clock::get);
+    for (int i = 0; i < 5; i++) {
+      sweeper.track(new HashKeyWrapper(i), 0, false);
+    }
+
+    sweeper.sweep();
+    assertEquals(Arrays.asList(0, 1), checked);
+    assertEquals(3, sweeper.getTrackedEntries());
+    sweeper.cancel();
+  }
+
+  @Test
+  void shouldPurgeExpiredEntriesInBackground() throws Exception {
+    AbstractEhcacheCache swept = new EhcacheCache("SWEPT");
+    swept.setTimeToLiveSeconds(1);
+    swept.setExpirySweepIntervalMillis(100);
+    for (int i = 0; i < 100; i++) {
+      swept.putObject(i, i);
+    }
+    // Ehcache expires entries on its own clock: wait for the sweeper rather than for a fixed delay
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (swept.getSize() > 0 && System.nanoTime() - deadline < 0) {
+      Thread.sleep(50);
+    }
+    assertEquals(0, swept.getSize());
+    swept.setExpirySweepIntervalMillis(0);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void shouldIsolateDeepCopiedValues() {
+    AbstractEhcacheCache copying = new EhcacheCache("DEEP_COPY");
+    copying.setValueCopy("deep");
+    List<Object> result = new ArrayList<>(Arrays.asList("a", new ArrayList<>(Arrays.asList(1, 2))));
+    copying.putObject("key", result);
+    result.add("mutated after put");
+
+    List<Object> read = (List<Object>) copying.getObject("key");
+    assertEquals(2, read.size());
+    ((List<Object>) read.get(1)).add(3);
+    read.add("mutated after get");
+    assertEquals(Arrays.asList("a", Arrays.asList(1, 2)), copying.getObject("key"));
+  }
+
+  @Test
+  void shouldDeepCopyResultObjectsAndKeepCollectionTypes() {
+    ResultCopier copier = new ResultCopier(ResultCopier.Mode.DEEP);
+    Row parent = new Row(1, "parent");
+    Row child = new Row(2, "child");
+    child.parent = parent;
+    parent.children.add(child);
+
+    List<?> copy = (List<?>) copier.deepCopy(new ArrayList<>(Arrays.asList(parent, child)));
+    Row parentCopy = (Row) copy.get(0);
+    Row childCopy = (Row) copy.get(1);
+    assertNotSame(parent, parentCopy);
+    assertEquals("parent", parentCopy.name);
+    assertSame(childCopy, parentCopy.children.get(0));
+    assertSame(parentCopy, childCopy.parent);
+
+    TreeMap<String, Integer> sorted = new TreeMap<>(Comparator.reverseOrder());
+    sorted.put("a", 1);
+    sorted.put("b", 2);
+    Object sortedCopy = copier.deepCopy(sorted);
+    assertNotSame(sorted, sortedCopy);
+    assertEquals(TreeMap.class, sortedCopy.getClass());
+    assertEquals(Arrays.asList("b", "a"), new ArrayList<>(((TreeMap<?, ?>) sortedCopy).keySet()));
+  }
+
+  @Test
+  void shouldHandOutReadOnlyViews() {
+    AbstractEhcacheCache copying = new EhcacheCache("IMMUTABLE_COPY");
+    copying.setValueCopy("immutable");
+    copying.putObject("key", new ArrayList<>(Arrays.asList(1, 2)));
+
+    @SuppressWarnings("unchecked")
+    List<Object> read = (List<Object>) copying.getObject("key");
+    assertThrows(UnsupportedOperationException.class, () -> read.add(3));
+    assertEquals(Arrays.asList(1, 2), read);
+    assertThrows(IllegalArgumentException.class, () -> copying.setValueCopy("unknown"));
+  }
+
+  @Test
+  void shouldReplayRecordedTrace() throws Exception {
+    Path trace = Files.createTempFile("mybatis-ehcache", ".trace");
+    try {
+      AbstractEhcacheCache traced = new EhcacheCache("TRACED");
+      traced.setTraceSampleRate(1);
+      traced.setTraceFile(trace.toString());
+      for (int round = 0; round < 2; round++) {
+        for (int i = 0; i < 10; i++) {
+          if (traced.getObject(i) == null) {
+            traced.putObject(i, "value" + i);
+          }
+        }
+      }
+      traced.clear();
+      traced.setTraceFile(null);
+
+      List<TraceSimulator.Result> results = TraceSimulator.simulate(trace, "lru", new long[] { 5, 10 }, 0);
+      assertEquals(20, results.get(0).getLookups());
+      assertEquals(20, results.get(0).getMisses());
+      assertEquals(10, results.get(1).getMisses());
+      assertEquals(0.5, results.get(1).getMissRatio());
+      assertThrows(IllegalArgumentException.class, () -> traced.setTraceSampleRate(0));
+    } finally {
+      Files.delete(trace);
+    }
+  }
+
+  @Test
+  void shouldCompleteTheTraceOfADiscardedNamespace() throws Exception {
+    Path trace = Files.createTempFile("mybatis-ehcache", ".trace");
+    try {
+      AbstractEhcacheCache traced = new EhcacheCache("TRACED_DISCARDED");
+      traced.setTraceSampleRate(1);
+      traced.setTraceFile(trace.toString());
+      for (int i = 0; i < 3; i++) {
+        traced.getObject(i);
+      }
+      new EhcacheCache("TRACED_DISCARDED");
+
+      List<TraceSimulator.Result> results = TraceSimulator.simulate(trace, "lru", new long[] { 10 }, 0);
+      assertEquals(3, results.get(0).getLookups());
+      traced.getObject(3);
+      assertEquals(3, TraceSimulator.simulate(trace, "lru", new long[] { 10 }, 0).get(0).getLookups());
+    } finally {
+      Files.delete(trace);
+    }
+  }
+
+  @Test
+  void shouldRejectPutsReadBeforeInvalidation() throws Exception {
+    AbstractEhcacheCache versioned = new EhcacheCache("VERSIONED");
+    versioned.setRejectStalePuts(true);
+    assertNull(versioned.getObject("cleared"));
+    versioned.clear();
+    versioned.putObject("cleared", "stale");
+    assertNull(versioned.getObject("cleared"));
+    versioned.putObject("cleared", "fresh");
+    assertEquals("fresh", versioned.getObject("cleared"));
+
+    assertNull(versioned.getObject("removed"));
+    Thread remover = new Thread(() -> versioned.removeObject("removed"));
+    remover.start();
+    remover.join();
+    versioned.putObject("removed", "stale");
+    assertNull(versioned.getObject("removed"));
+
+    for (int i = 0; i <= 10_000; i++) {
+      assertNull(versioned.getObject("leaked" + i));
+    }
+    versioned.clear();
+    versioned.putObject("leaked0", "stale");
+    assertNull(versioned.getObject("leaked0"));
+    assertEquals(3, versioned.getStatistics().getStalePuts());
+  }
+
+  @Test
+  void shouldSuspendCachingDuringWriteBurst() {
+    AbstractEhcacheCache bursty = new EhcacheCache("BURSTY");
+    bursty.setBurstClearThreshold(3);
+    bursty.setBurstSuspendMillis(200);
+    bursty.putObject("before", 1);
+    for (int i = 0; i < 3; i++) {
+      bursty.clear();
+    }
+    bursty.putObject("during", 2);
+    assertNull(bursty.getObject("during"));
+    bursty.clear();
+    assertEquals(1, bursty.getStatistics().getBurstSuspensions());
+    assertEquals(1, bursty.getStatistics().getCoalescedClears());
+
+    CacheClock.advance(300, TimeUnit.MILLISECONDS);
+    bursty.putObject("after", 3);
+    assertEquals(3, bursty.getObject("after"));
+    assertEquals(1, bursty.getSize());
+  }
+
+  @Test
+  void shouldNotExtendAnElapsedSuspensionOnALoneClear() {
+    AbstractEhcacheCache bursty = new EhcacheCache("BURSTY_LONE_CLEAR");
+    bursty.setBurstClearThreshold(3);
+    bursty.setBurstSuspendMillis(200);
+    for (int i = 0; i < 3; i++) {
+      bursty.clear();
+    }
+    assertEquals(1, bursty.getStatistics().getBurstSuspensions());
+
+    // No get or put lifts the suspension before the next clear
+    CacheClock.advance(300, TimeUnit.MILLISECONDS);
+    bursty.clear();
+    assertEquals(1, bursty.getStatistics().getBurstSuspensions());
+    assertEquals(0, bursty.getStatistics().getCoalescedClears());
+    bursty.putObject("after", 1);
+    assertEquals(1, bursty.getObject("after"));
+  }
+
+  @Test
+  void shouldReportHotKeys() {
+    AbstractEhcacheCache tracked = new EhcacheCache("HOT_KEYS");
+    assertTrue(tracked.getHotKeys().isEmpty());
+    tracked.setHotKeyCount(2);
+    tracked.setHotKeySampleInterval(1);
+    CacheKey hot = new CacheKey(new Object[] { "org.acme.FooMapper.select", 1 });
+    for (int i = 0; i < 100; i++) {
+      tracked.getObject(hot);
+      tracked.getObject("cold" + i);
+    }
+
+    List<HotKey> hotKeys = tracked.getHotKeys();
+    assertEquals(2, hotKeys.size());
+    assertEquals("org.acme.FooMapper.select", hotKeys.get(0).getStatementId());
+    assertEquals(100, hotKeys.get(0).getEstimatedAccesses());
+    assertTrue(tracked.getHotKeySkew() >= 0.5);
+  }
+
+  @Test
+  void shouldAccessCacheAsynchronously() throws Exception {
+    AbstractEhcacheCache async = new EhcacheCache("ASYNC");
+    async.putObjectAsync("key", "value").get();
+    assertEquals("value", async.getObjectAsync("key").get());
+
+    List<Runnable> tasks = new ArrayList<>();
+    async.setAsyncExecutor(tasks::add);
+    CompletableFuture<Void> cleared = async.clearAsync();
+    assertFalse(cleared.isDone());
+    tasks.forEach(Runnable::run);
+    assertTrue(cleared.isDone());
+    assertNull(async.getObject("key"));
+  }
+
+  @Test
+  void shouldApplyStatementTimeToLive() {
+    AbstractEhcacheCache rules = new EhcacheCache("STATEMENT_RULES");
+    rules.setTimeToLiveSeconds(3600);
+    rules.setStatementTimeToLive("org.acme.FooMapper.*=1, org.acme.FooMapper.selectCountries=3600");
+    CacheKey countries = new CacheKey(new Object[] { "org.acme.FooMapper.selectCountries", 1 });
+    CacheKey orders = new CacheKey(new Object[] { "org.acme.FooMapper.selectOrders", 1 });
+    rules.putObject(countries, "countries");
+    rules.putObject(orders, "orders");
+
+    CacheClock.advance(1200, TimeUnit.MILLISECONDS);
+    assertEquals("countries", rules.getObject(countries));
+    assertNull(rules.getObject(orders));
+    assertThrows(IllegalArgumentException.class, () -> rules.setStatementWeights("org.acme.FooMapper.*"));
+    assertThrows(IllegalArgumentException.class, () -> rules.setStatementWeights("org.acme.FooMapper.*=heavy"));
+  }
+
+  @Test
+  void shouldProtectReusedEntriesFromScans() {
+    AbstractEhcacheCache promoting = new EhcacheCache("SECOND_ACCESS");
+    promoting.setMaxEntriesLocalHeap(2);
+    promoting.setHeapPromotion("secondAccess");
+    assertNull(promoting.getObject("working"));
+    promoting.putObject("working", "working");
+    assertEquals("working", promoting.getObject("working"));
+    for (int i = 0; i < 10; i++) {
+      assertNull(promoting.getObject(i));
+      promoting.putObject(i, i);
+    }
+    assertEquals("working", promoting.getObject("working"));
+    assertThrows(IllegalArgumentException.class, () -> promoting.setHeapPromotion("never"));
+  }
+
+  @Test
+  void shouldNotProtectExcludedStatements() {
+    FrequencySketch sketch = new FrequencySketch(1024);
+    AccessFrequencyEvictionAdvisor advisor = new AccessFrequencyEvictionAdvisor(sketch,
+        StatementMatcher.parse("org.acme.FooMapper.report*"));
+    HashKeyWrapper reused = new HashKeyWrapper(new CacheKey(new Object[] { "org.acme.FooMapper.select", 1 }));
+    HashKeyWrapper excluded = new HashKeyWrapper(new CacheKey(new Object[] { "org.acme.FooMapper.reportAll", 1 }));
+    for (int i = 0; i < 2; i++) {
+      sketch.increment(reused.hashCode());
+      sketch.increment(excluded.hashCode());
+    }
+    assertTrue(advisor.adviseAgainstEviction(reused, "value"));
+    // A lookup key equal to the one put is excluded as well
+    assertFalse(advisor.adviseAgainstEviction(excluded, "value"));
+    assertFalse(advisor.adviseAgainstEviction(
+        new HashKeyWrapper(new CacheKey(new Object[] { "org.acme.FooMapper.reportAll", 1 })), "value"));
+    assertFalse(advisor.adviseAgainstEviction(new HashKeyWrapper("scanned"), "value"));
+  }
+
+  @Test
+  void shouldNotKeepExcludedStatementsInTheHeapOfADiskTier() {
+    AbstractEhcacheCache promoting = new EhcacheCache("SECOND_ACCESS_DISK");
+    promoting.setMaxEntriesLocalHeap(2);
+    promoting.setMaxBytesLocalDisk(10 * 1024 * 1024);
+    promoting.setHeapPromotion("secondAccess");
+    promoting.setHeapPromotionExcludedStatements("org.acme.FooMapper.report*");
+    CacheKey working = new CacheKey(new Object[] { "org.acme.FooMapper.select", 1 });
+    CacheKey report = new CacheKey(new Object[] { "org.acme.FooMapper.reportAll", 1 });
+    promoting.putObject(working, "working");
+    promoting.putObject(report, "report");
+    // Puts go to the disk tier; the first hits fault the entries into the heap, the second ones make them reused
+    promoting.getObject(working);
+    promoting.getObject(report);
+    Object heapWorking = promoting.getObject(working);
+    Object heapReport = promoting.getObject(report);
+    for (int i = 0; i < 10; i++) {
+      promoting.putObject(i, "scanned" + i);
+      promoting.getObject(i);
+    }
+
+    // Entries kept in the heap are returned by reference, entries faulted in again are deserialized anew
+    assertSame(heapWorking, promoting.getObject(working));
+    assertNotSame(heapReport, promoting.getObject(report));
+    assertEquals("report", promoting.getObject(report));
+  }
+
+  @Test
+  void shouldNotifyListeners() throws Exception {
+    AbstractEhcacheCache notifying = new EhcacheCache("LISTENED");
+    List<CacheEntryEvent> events = new ArrayList<>();
+    notifying.setListenerFiring("sync");
+    notifying.addListener(events::add);
+    notifying.putObject("key", "created");
+    notifying.putObject("key", "updated");
+    notifying.removeObject("key");
+    notifying.clear();
+
+    assertEquals(4, events.size());
+    assertEquals(EventType.CREATED, events.get(0).getType());
+    assertEquals("key", events.get(0).getKey());
+    assertEquals("created", events.get(1).getOldValue());
+    assertEquals("updated", events.get(1).getNewValue());
+    assertEquals(EventType.REMOVED, events.get(2).getType());
+    assertFalse(events.get(2).isClear());
+    assertEquals(EventType.REMOVED, events.get(3).getType());
+    assertTrue(events.get(3).isClear());
+    assertNull(events.get(3).getKey());
+
+    CountDownLatch delivered = new CountDownLatch(1);
+    notifying.setListenerFiring("async");
+    notifying.addListener(event -> delivered.countDown());
+    notifying.putObject("async", "value");
+    assertTrue(delivered.await(5, TimeUnit.SECONDS));
+    assertThrows(IllegalArgumentException.class, () -> notifying.setListeners("java.lang.String"));
+  }
+
+  @Test
+  void shouldNotNotifyRemovalsOfEntriesTurningNegative() {
+    AbstractEhcacheCache notifying = new EhcacheCache("LISTENED_NEGATIVE");
+    notifying.setMaxNegativeEntries(10);
+    List<CacheEntryEvent> events = new ArrayList<>();
+    notifying.setListenerFiring("sync");
+    notifying.addListener(events::add);
+    notifying.putObject("key", "value");
+    notifying.putObject("key", null);
+    notifying.putObject("other", "value");
+    notifying.putAll(Collections.singletonMap("other", null));
+
+    assertEquals(2, events.size());
+    assertEquals(EventType.CREATED, events.get(0).getType());
+    assertEquals(EventType.CREATED, events.get(1).getType());
+    assertNull(notifying.getObject("key"));
+    assertEquals(2, notifying.getSize());
+  }
+
+  @Test
+  void shouldEstimateFootprint() {
+    AbstractEhcacheCache measured = new EhcacheCache("FOOTPRINT");
+    measured.setFootprintIntervalMillis(3_600_000);
+    assertNull(measured.cache);
+    measured.setMaxEntriesLocalHeap(1000);
+    assertNull(measured.cache);
+    measured.initialize();
+    assertNull(measured.getFootprint());
+    measured.setFootprintIntervalMillis(0);
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      value.append("0123456789");
+      measured.putObject(i, value.toString());
+    }
+
+    FootprintAnalyzer analyzer = new FootprintAnalyzer(measured::stores, 3_600_000, 4);
+    analyzer.analyze();
+    CacheFootprint footprint = analyzer.getFootprint();
+    analyzer.cancel();
+    assertEquals(100, footprint.getEntries());
+    assertEquals(25, footprint.getSampledEntries());
+    assertTrue(footprint.getValueBytes() > footprint.getKeyBytes());
+    assertEquals(100, Arrays.stream(footprint.getValueSizeHistogram()).sum());
+  }
+
   @Test
   void shouldNotCreateCache() {
     assertThrows(IllegalArgumentException.class, () -> {
@@ -165,6 +940,26 @@ class EhcacheTest {
     assertEquals(x, x);
   }
 
+  /**
+   * A mapped result object.
+   */
+  static final class Row implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int id;
+    private String name;
+    private Row parent;
+    private final List<Row> children = new ArrayList<>();
+
+    Row() {
+    }
+
+    Row(int id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+  }
+
   // CacheManager holds reference to settings, reset this for other tests
   private void resetCache() {
     cache.setTimeToLiveSeconds(120);
@@ -0,0 +1,484 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.annotations.CacheNamespace;
+import org.apache.ibatis.annotations.CacheNamespaceRef;
+import org.apache.ibatis.annotations.Property;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+
+/**
+ * End-to-end load harness running a mapper workload through MyBatis against an in-memory HSQLDB database, with the
+ * mapper cached by {@link EhcacheCache} or by an {@link EhBlockingCache} wrapped in MyBatis's {@link BlockingCache}.
+ * <p>
+ * Worker threads issue a configurable mix of lookups by primary key, updates (which flush the namespace, as in
+ * MyBatis) and explicit clears, with keys drawn from a Zipf distribution. After a warm-up phase, the harness reports
+ * the throughput, the p50/p99/p99.9 latency of all operations, the hit ratio and the database queries saved by the
+ * cache, counted by an interceptor on the statements actually sent to the database.
+ * </p>
+ * <p>
+ * MyBatis only applies {@code blocking = true} to its default cache, not to a custom implementation, so the harness
+ * builds the blocking cache itself, decorated as MyBatis decorates custom caches, and the blocking mapper refers to it
+ * with {@link CacheNamespaceRef}.
+ * </p>
+ * <p>
+ * In {@code direct} mode, the workers bypass MyBatis and the database and call the namespace cache themselves: a
+ * lookup that misses stores the row, as MyBatis would after querying it, and an update stores a new value. Only the
+ * cache is then contended, which, with a high skew and many threads, measures the contention on the hottest keys and
+ * on {@code clear()}; compare runs with {@code --shards 1} and {@code --shards N}. This mode requires
+ * {@code --cache ehcache}, since updates would not follow the lock protocol of the blocking cache.
+ * </p>
+ * <p>
+ * With a disk tier small enough for the heap tier to miss often (for example {@code --maxEntriesLocalHeap 100
+ * --maxBytesLocalDisk 67108864}), a sweep over {@code --diskSegments} at a fixed thread count shows the disk tier
+ * throughput against its segment count.
+ * </p>
+ * <p>
+ * This is not a unit test: run {@link #main(String[])} from the test classpath, with options given as
+ * {@code --name value} pairs (defaults in parentheses):
+ * </p>
+ * <ul>
+ * <li>{@code --cache} {@code ehcache} or {@code blocking} ({@code ehcache});</li>
+ * <li>{@code --mode} {@code mapper} or {@code direct} ({@code mapper});</li>
+ * <li>{@code --threads} number of worker threads (8);</li>
+ * <li>{@code --warmup}, {@code --duration} phase lengths, in seconds (5, 30);</li>
+ * <li>{@code --rows} number of rows, i.e. distinct keys (10000);</li>
+ * <li>{@code --skew} Zipf exponent of the key distribution, 0 for uniform (0.99);</li>
+ * <li>{@code --read}, {@code --write}, {@code --clear} operation mix, in percent (95, 4, 1);</li>
+ * <li>{@code --maxEntriesLocalHeap}, {@code --timeToLiveSeconds}, {@code --maxBytesLocalDisk}, {@code --shards},
+ * {@code --diskSegments}, {@code --diskWriterConcurrency} cache properties (1000, 0, 0, 1, 16, 1).</li>
+ * </ul>
+ */
+public final class MacroBenchmark {
+
+  /** Upper bound of the latencies kept per worker; later operations are counted but not sampled. */
+  private static final int MAX_SAMPLES_PER_WORKER = 2_000_000;
+
+  private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+  static {
+    DEFAULTS.put("cache", "ehcache");
+    DEFAULTS.put("mode", "mapper");
+    DEFAULTS.put("threads", "8");
+    DEFAULTS.put("warmup", "5");
+    DEFAULTS.put("duration", "30");
+    DEFAULTS.put("rows", "10000");
+    DEFAULTS.put("skew", "0.99");
+    DEFAULTS.put("read", "95");
+    DEFAULTS.put("write", "4");
+    DEFAULTS.put("clear", "1");
+    DEFAULTS.put("maxEntriesLocalHeap", "1000");
+    DEFAULTS.put("timeToLiveSeconds", "0");
+    DEFAULTS.put("maxBytesLocalDisk", "0");
+    DEFAULTS.put("shards", "1");
+    DEFAULTS.put("diskSegments", "16");
+    DEFAULTS.put("diskWriterConcurrency", "1");
+  }
+
+  private final Map<String, String> options;
+  private final Class<? extends ItemMapper> mapperType;
+  private final SqlSessionFactory sqlSessionFactory;
+  private final QueryCounter queryCounter = new QueryCounter();
+  private final double[] keyDistribution;
+  private final int readPercent;
+  private final int writePercent;
+  private final boolean direct;
+
+  private MacroBenchmark(Map<String, String> options) throws SQLException {
+    this.options = options;
+    this.mapperType = "blocking".equals(options.get("cache")) ? BlockingItemMapper.class : CachedItemMapper.class;
+    this.readPercent = intOption("read");
+    this.writePercent = intOption("write");
+    this.direct = "direct".equals(options.get("mode"));
+    if (!direct && !"mapper".equals(options.get("mode"))) {
+      throw new IllegalArgumentException("The mode must be mapper or direct");
+    }
+    if (direct && mapperType == BlockingItemMapper.class) {
+      throw new IllegalArgumentException("The direct mode requires the ehcache cache");
+    }
+    if (readPercent + writePercent + intOption("clear") != 100) {
+      throw new IllegalArgumentException("The read, write and clear percentages must add up to 100");
+    }
+
+    PooledDataSource dataSource = new PooledDataSource("org.hsqldb.jdbc.JDBCDriver",
+        "jdbc:hsqldb:mem:macrobenchmark", "SA", "");
+    dataSource.setPoolMaximumActiveConnections(intOption("threads"));
+    dataSource.setPoolMaximumIdleConnections(intOption("threads"));
+    Configuration configuration = new Configuration(
+        new Environment("benchmark", new JdbcTransactionFactory(), dataSource));
+    Properties variables = new Properties();
+    options.forEach((name, value) -> variables.setProperty("cache." + name, value));
+    configuration.setVariables(variables);
+    configuration.addInterceptor(queryCounter);
+    if (mapperType == BlockingItemMapper.class) {
+      configuration.addCache(newBlockingCache());
+    }
+    configuration.addMapper(mapperType);
+    this.sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+
+    int rows = intOption("rows");
+    createTable(dataSource.getConnection(), rows);
+    this.keyDistribution = zipfDistribution(rows, Double.parseDouble(options.get("skew")));
+  }
+
+  /**
+   * Returns the cache of {@link BlockingItemMapper}, configured like the {@code @CacheNamespace} of
+   * {@link CachedItemMapper}.
+   */
+  private Cache newBlockingCache() {
+    EhBlockingCache cache = new EhBlockingCache(BlockingItemMapper.class.getName());
+    cache.setMaxEntriesLocalHeap(Long.parseLong(options.get("maxEntriesLocalHeap")));
+    cache.setTimeToLiveSeconds(Long.parseLong(options.get("timeToLiveSeconds")));
+    cache.setMaxBytesLocalDisk(Long.parseLong(options.get("maxBytesLocalDisk")));
+    cache.setShards(intOption("shards"));
+    cache.setDiskSegments(intOption("diskSegments"));
+    cache.setDiskWriterConcurrency(intOption("diskWriterConcurrency"));
+    cache.initialize();
+    return new BlockingCache(new LoggingCache(cache));
+  }
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args
+   *          the options, as {@code --name value} pairs
+   *
+   * @throws Exception
+   *           if the benchmark fails
+   */
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>(DEFAULTS);
+    for (int i = 0; i < args.length; i += 2) {
+      String name = args[i].startsWith("--") ? args[i].substring(2) : args[i];
+      if (!DEFAULTS.containsKey(name) || i + 1 >= args.length) {
+        System.err.println("Unknown or incomplete option " + args[i] + "; known options: " + DEFAULTS.keySet());
+        System.exit(2);
+      }
+      options.put(name, args[i + 1]);
+    }
+    new MacroBenchmark(options).run();
+  }
+
+  private void run() throws Exception {
+    int threads = intOption("threads");
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    try {
+      runPhase(workers, threads, intOption("warmup"));
+      queryCounter.reset();
+      long start = System.nanoTime();
+      List<WorkerResult> results = runPhase(workers, threads, intOption("duration"));
+      long elapsedNanos = System.nanoTime() - start;
+      long databaseQueries = queryCounter.selects.get();
+      if (direct) {
+        databaseQueries = 0;
+        for (WorkerResult result : results) {
+          databaseQueries += result.misses;
+        }
+      }
+      report(results, elapsedNanos, databaseQueries);
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  private List<WorkerResult> runPhase(ExecutorService workers, int threads, int seconds) throws Exception {
+    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    List<Future<WorkerResult>> futures = new ArrayList<>(threads);
+    for (int i = 0; i < threads; i++) {
+      futures.add(workers.submit(() -> work(end)));
+    }
+    List<WorkerResult> results = new ArrayList<>(threads);
+    for (Future<WorkerResult> future : futures) {
+      results.add(future.get());
+    }
+    return results;
+  }
+
+  private WorkerResult work(long end) {
+    WorkerResult result = new WorkerResult();
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    Cache namespaceCache = sqlSessionFactory.getConfiguration().getCache(mapperType.getName());
+    while (System.nanoTime() - end < 0) {
+      int operation = random.nextInt(100);
+      int id = nextKey(random);
+      long start = System.nanoTime();
+      if (direct) {
+        workDirect(namespaceCache, operation, id, result);
+      } else if (operation < readPercent) {
+        try (SqlSession session = sqlSessionFactory.openSession()) {
+          session.getMapper(mapperType).selectById(id);
+        }
+        result.reads++;
+      } else if (operation < readPercent + writePercent) {
+        try (SqlSession session = sqlSessionFactory.openSession()) {
+          session.getMapper(mapperType).incrementPrice(id);
+          session.commit();
+        }
+      } else {
+        namespaceCache.clear();
+      }
+      result.record(System.nanoTime() - start);
+    }
+    return result;
+  }
+
+  private void workDirect(Cache namespaceCache, int operation, int id, WorkerResult result) {
+    if (operation < readPercent) {
+      if (namespaceCache.getObject(id) == null) {
+        namespaceCache.putObject(id, newItem(id));
+        result.misses++;
+      }
+      result.reads++;
+    } else if (operation < readPercent + writePercent) {
+      namespaceCache.putObject(id, newItem(id));
+    } else {
+      namespaceCache.clear();
+    }
+  }
+
+  private static Item newItem(int id) {
+    Item item = new Item();
+    item.setId(id);
+    item.setName("item-" + id);
+    item.setPrice(id % 1000);
+    return item;
+  }
+
+  private void report(List<WorkerResult> results, long elapsedNanos, long databaseQueries) {
+    long operations = 0;
+    long reads = 0;
+    int sampleCount = 0;
+    for (WorkerResult result : results) {
+      operations += result.operations;
+      reads += result.reads;
+      sampleCount += result.sampleCount;
+    }
+    long[] samples = new long[sampleCount];
+    int offset = 0;
+    for (WorkerResult result : results) {
+      System.arraycopy(result.samples, 0, samples, offset, result.sampleCount);
+      offset += result.sampleCount;
+    }
+    Arrays.sort(samples);
+
+    System.out.printf(Locale.ROOT,
+        "cache=%s mode=%s threads=%s rows=%s skew=%s mix=%s/%s/%s heap=%s ttl=%s disk=%s shards=%s segments=%s"
+            + " writers=%s%n",
+        options.get("cache"), options.get("mode"), options.get("threads"), options.get("rows"), options.get("skew"),
+        options.get("read"), options.get("write"), options.get("clear"), options.get("maxEntriesLocalHeap"),
+        options.get("timeToLiveSeconds"), options.get("maxBytesLocalDisk"), options.get("shards"),
+        options.get("diskSegments"), options.get("diskWriterConcurrency"));
+    System.out.printf(Locale.ROOT, "throughput   %,.0f ops/s (%,d operations)%n",
+        operations / (elapsedNanos / 1e9), operations);
+    System.out.printf(Locale.ROOT, "latency      p50=%.1f us  p99=%.1f us  p99.9=%.1f us  max=%.1f us%n",
+        percentile(samples, 0.50) / 1e3, percentile(samples, 0.99) / 1e3, percentile(samples, 0.999) / 1e3,
+        percentile(samples, 1.0) / 1e3);
+    System.out.printf(Locale.ROOT, "hit ratio    %.4f (%,d lookups, %,d database queries, %,d queries saved)%n",
+        reads == 0 ? 0 : 1 - (double) databaseQueries / reads, reads, databaseQueries,
+        Math.max(0, reads - databaseQueries));
+  }
+
+  private static long percentile(long[] sortedSamples, double percentile) {
+    if (sortedSamples.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percentile * sortedSamples.length) - 1;
+    return sortedSamples[Math.max(0, Math.min(sortedSamples.length - 1, index))];
+  }
+
+  private int nextKey(ThreadLocalRandom random) {
+    int index = Arrays.binarySearch(keyDistribution, random.nextDouble());
+    return (index >= 0 ? index : -index - 1) + 1;
+  }
+
+  /**
+   * Returns the cumulative distribution of the Zipf law of the given exponent over {@code rows} ranks.
+   */
+  private static double[] zipfDistribution(int rows, double exponent) {
+    double[] cumulative = new double[rows];
+    double sum = 0;
+    for (int rank = 1; rank <= rows; rank++) {
+      sum += 1 / Math.pow(rank, exponent);
+      cumulative[rank - 1] = sum;
+    }
+    for (int i = 0; i < rows; i++) {
+      cumulative[i] /= sum;
+    }
+    cumulative[rows - 1] = 1;
+    return cumulative;
+  }
+
+  private static void createTable(Connection connection, int rows) throws SQLException {
+    try (Connection c = connection; Statement statement = c.createStatement()) {
+      statement.execute("DROP TABLE item IF EXISTS");
+      statement.execute("CREATE TABLE item (id INT PRIMARY KEY, name VARCHAR(64), price INT)");
+      try (PreparedStatement insert = c.prepareStatement("INSERT INTO item (id, name, price) VALUES (?, ?, ?)")) {
+        for (int id = 1; id <= rows; id++) {
+          insert.setInt(1, id);
+          insert.setString(2, "item-" + id);
+          insert.setInt(3, id % 1000);
+          insert.addBatch();
+        }
+        insert.executeBatch();
+      }
+      if (!c.getAutoCommit()) {
+        c.commit();
+      }
+    }
+  }
+
+  private int intOption(String name) {
+    return Integer.parseInt(options.get(name));
+  }
+
+  /**
+   * Operations and latency samples of one worker thread.
+   */
+  private static final class WorkerResult {
+    private long[] samples = new long[1024];
+    private int sampleCount;
+    private long operations;
+    private long reads;
+    private long misses;
+
+    void record(long latencyNanos) {
+      operations++;
+      if (sampleCount == samples.length && samples.length < MAX_SAMPLES_PER_WORKER) {
+        samples = Arrays.copyOf(samples, Math.min(MAX_SAMPLES_PER_WORKER, samples.length * 2));
+      }
+      if (sampleCount < samples.length) {
+        samples[sampleCount++] = latencyNanos;
+      }
+    }
+  }
+
+  /**
+   * Counts the queries actually sent to the database, i.e. the lookups not answered by the cache.
+   */
+  @Intercepts(@Signature(type = StatementHandler.class, method = "prepare", args = { Connection.class, Integer.class }))
+  public static final class QueryCounter implements Interceptor {
+    private final AtomicLong selects = new AtomicLong();
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+      String sql = ((StatementHandler) invocation.getTarget()).getBoundSql().getSql();
+      if (sql.trim().regionMatches(true, 0, "SELECT", 0, 6)) {
+        selects.incrementAndGet();
+      }
+      return invocation.proceed();
+    }
+
+    void reset() {
+      selects.set(0);
+    }
+  }
+
+  /**
+   * A row of the benchmark table.
+   */
+  public static class Item implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int id;
+    private String name;
+    private int price;
+
+    public int getId() {
+      return id;
+    }
+
+    public void setId(int id) {
+      this.id = id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public int getPrice() {
+      return price;
+    }
+
+    public void setPrice(int price) {
+      this.price = price;
+    }
+  }
+
+  /**
+   * Statements of the workload, inherited by the cached mappers.
+   */
+  public interface ItemMapper {
+    @Select("SELECT id, name, price FROM item WHERE id = #{id}")
+    Item selectById(int id);
+
+    @Update("UPDATE item SET price = price + 1 WHERE id = #{id}")
+    int incrementPrice(int id);
+  }
+
+  @CacheNamespace(implementation = EhcacheCache.class, properties = {
+      @Property(name = "maxEntriesLocalHeap", value = "${cache.maxEntriesLocalHeap}"),
+      @Property(name = "timeToLiveSeconds", value = "${cache.timeToLiveSeconds}"),
+      @Property(name = "maxBytesLocalDisk", value = "${cache.maxBytesLocalDisk}"),
+      @Property(name = "shards", value = "${cache.shards}"),
+      @Property(name = "diskSegments", value = "${cache.diskSegments}"),
+      @Property(name = "diskWriterConcurrency", value = "${cache.diskWriterConcurrency}") })
+  public interface CachedItemMapper extends ItemMapper {
+  }
+
+  @CacheNamespaceRef(BlockingItemMapper.class)
+  public interface BlockingItemMapper extends ItemMapper {
+  }
+
+}
@@ -0,0 +1,173 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Micro harness for the disk tier hit and write paths of {@link ObjectSerializer}.
+ * <p>
+ * Hits are measured on the buffers Ehcache hands over to {@link ObjectSerializer#read(ByteBuffer)}: heap buffers, and
+ * buffers sliced from a memory-mapped file, like the pages backing the disk tier. Each is read in place, as the
+ * serializer does, and after copying the value into a fresh {@code byte[]} first, as it used to. Writes are measured
+ * as the throughput of {@link ObjectSerializer#serialize(Object)}.
+ * </p>
+ * <p>
+ * The values are lists of rows shaped like MyBatis results. This is not a unit test: run {@link #main(String[])} from
+ * the test classpath, with options given as {@code --name value} pairs (defaults in parentheses):
+ * </p>
+ * <ul>
+ * <li>{@code --rows} number of rows per value (20);</li>
+ * <li>{@code --values} number of distinct values, i.e. mapped slices (10000);</li>
+ * <li>{@code --iterations} operations per measurement, after as many warm-up operations (1000000).</li>
+ * </ul>
+ */
+public final class SerializerBenchmark {
+
+  private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+  static {
+    DEFAULTS.put("rows", "20");
+    DEFAULTS.put("values", "10000");
+    DEFAULTS.put("iterations", "1000000");
+  }
+
+  private static final ObjectSerializer SERIALIZER = new ObjectSerializer(null);
+
+  /** Keeps the results alive so that the measured work is not optimized away. */
+  private static int sink;
+
+  private SerializerBenchmark() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args
+   *          the options, as {@code --name value} pairs
+   *
+   * @throws Exception
+   *           if the benchmark fails
+   */
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>(DEFAULTS);
+    for (int i = 0; i < args.length; i += 2) {
+      String name = args[i].startsWith("--") ? args[i].substring(2) : args[i];
+      if (!DEFAULTS.containsKey(name) || i + 1 >= args.length) {
+        System.err.println("Unknown or incomplete option " + args[i] + "; known options: " + DEFAULTS.keySet());
+        System.exit(2);
+      }
+      options.put(name, args[i + 1]);
+    }
+    int rows = Integer.parseInt(options.get("rows"));
+    int values = Integer.parseInt(options.get("values"));
+    int iterations = Integer.parseInt(options.get("iterations"));
+
+    List<Object> objects = new ArrayList<>(values);
+    ByteBuffer[] heapBuffers = new ByteBuffer[values];
+    long totalBytes = 0;
+    for (int i = 0; i < values; i++) {
+      objects.add(newValue(i, rows));
+      heapBuffers[i] = SERIALIZER.serialize(objects.get(i));
+      totalBytes += heapBuffers[i].remaining();
+    }
+
+    Path file = Files.createTempFile("serializer-benchmark", ".data");
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.DELETE_ON_CLOSE)) {
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, totalBytes);
+      ByteBuffer[] mappedBuffers = new ByteBuffer[values];
+      for (int i = 0; i < values; i++) {
+        int offset = mapped.position();
+        mapped.put(heapBuffers[i].duplicate());
+        mappedBuffers[i] = mapped.duplicate().position(offset).limit(mapped.position()).slice();
+      }
+
+      System.out.printf(Locale.ROOT, "rows=%d values=%d average size=%d bytes%n", rows, values, totalBytes / values);
+      for (int round = 0; round < 2; round++) {
+        boolean warmup = round == 0;
+        report("hit, heap, in place", warmup, iterations, measureReads(heapBuffers, iterations, false));
+        report("hit, heap, copied", warmup, iterations, measureReads(heapBuffers, iterations, true));
+        report("hit, mapped, in place", warmup, iterations, measureReads(mappedBuffers, iterations, false));
+        report("hit, mapped, copied", warmup, iterations, measureReads(mappedBuffers, iterations, true));
+        report("write", warmup, iterations, measureWrites(objects, iterations));
+      }
+    }
+    if (sink == 42) {
+      System.out.println();
+    }
+  }
+
+  private static long measureReads(ByteBuffer[] buffers, int iterations, boolean copy) throws Exception {
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      ByteBuffer buffer = buffers[i % buffers.length].duplicate();
+      Object value;
+      if (copy) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+          value = in.readObject();
+        }
+      } else {
+        value = SERIALIZER.read(buffer);
+      }
+      sink += value.hashCode();
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static long measureWrites(List<Object> objects, int iterations) {
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      sink += SERIALIZER.serialize(objects.get(i % objects.size())).remaining();
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static void report(String name, boolean warmup, int iterations, long elapsedNanos) {
+    if (!warmup) {
+      System.out.printf(Locale.ROOT, "%-22s %,8.0f ns/op  %,12.0f ops/s%n", name, (double) elapsedNanos / iterations,
+          iterations / (elapsedNanos / 1e9));
+    }
+  }
+
+  private static ArrayList<Object> newValue(int id, int rows) {
+    ArrayList<Object> value = new ArrayList<>(rows);
+    for (int row = 0; row < rows; row++) {
+      HashMap<String, Object> columns = new HashMap<>();
+      columns.put("id", id * rows + row);
+      columns.put("name", "item-" + id + "-" + row);
+      columns.put("price", (id + row) % 1000);
+      value.add(columns);
+    }
+    return value;
+  }
+
+}
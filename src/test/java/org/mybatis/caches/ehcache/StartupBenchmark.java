@@ -0,0 +1,95 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Startup harness measuring how long it takes to build the caches of an application with many mapper namespaces, as
+ * MyBatis does when parsing the mappers: each {@link EhcacheCache} is created, configured and initialized in turn.
+ * <p>
+ * The first cache pays for the creation of the cache manager it is registered with; the harness reports it separately
+ * from the remaining caches. Run it once with {@code --maxBytesLocalDisk 0} and once with a disk tier to compare the
+ * heap-only manager with the persistent one. Each run must use a fresh JVM, since the managers are shared by the whole
+ * process.
+ * </p>
+ * <p>
+ * This is not a unit test: run {@link #main(String[])} from the test classpath, with options given as
+ * {@code --name value} pairs (defaults in parentheses):
+ * </p>
+ * <ul>
+ * <li>{@code --caches} number of namespace caches to build (500);</li>
+ * <li>{@code --maxEntriesLocalHeap}, {@code --maxBytesLocalDisk}, {@code --shards} cache properties (1000, 0, 1).</li>
+ * </ul>
+ */
+public final class StartupBenchmark {
+
+  private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+  static {
+    DEFAULTS.put("caches", "500");
+    DEFAULTS.put("maxEntriesLocalHeap", "1000");
+    DEFAULTS.put("maxBytesLocalDisk", "0");
+    DEFAULTS.put("shards", "1");
+  }
+
+  private StartupBenchmark() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args
+   *          the options, as {@code --name value} pairs
+   */
+  public static void main(String[] args) {
+    Map<String, String> options = new HashMap<>(DEFAULTS);
+    for (int i = 0; i < args.length; i += 2) {
+      String name = args[i].startsWith("--") ? args[i].substring(2) : args[i];
+      if (!DEFAULTS.containsKey(name) || i + 1 >= args.length) {
+        System.err.println("Unknown or incomplete option " + args[i] + "; known options: " + DEFAULTS.keySet());
+        System.exit(2);
+      }
+      options.put(name, args[i + 1]);
+    }
+
+    int caches = Integer.parseInt(options.get("caches"));
+    long start = System.nanoTime();
+    long firstNanos = 0;
+    for (int i = 0; i < caches; i++) {
+      EhcacheCache cache = new EhcacheCache("org.example.mapper" + i + ".ItemMapper");
+      cache.setMaxEntriesLocalHeap(Long.parseLong(options.get("maxEntriesLocalHeap")));
+      cache.setMaxBytesLocalDisk(Long.parseLong(options.get("maxBytesLocalDisk")));
+      cache.setShards(Integer.parseInt(options.get("shards")));
+      cache.initialize();
+      if (i == 0) {
+        firstNanos = System.nanoTime() - start;
+      }
+    }
+    long elapsedNanos = System.nanoTime() - start;
+
+    System.out.printf(Locale.ROOT, "caches=%s heap=%s disk=%s shards=%s%n", options.get("caches"),
+        options.get("maxEntriesLocalHeap"), options.get("maxBytesLocalDisk"), options.get("shards"));
+    System.out.printf(Locale.ROOT, "first cache  %.1f ms (including the cache manager)%n", firstNanos / 1e6);
+    System.out.printf(Locale.ROOT, "other caches %.1f ms (%.3f ms per cache)%n", (elapsedNanos - firstNanos) / 1e6,
+        caches > 1 ? (elapsedNanos - firstNanos) / 1e6 / (caches - 1) : 0);
+    System.out.printf(Locale.ROOT, "total        %.1f ms%n", elapsedNanos / 1e6);
+  }
+
+}
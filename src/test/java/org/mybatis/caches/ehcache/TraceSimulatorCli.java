@@ -0,0 +1,92 @@
+/*
+ *    Copyright 2010-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       https://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.mybatis.caches.ehcache;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Command line front end of {@link TraceSimulator}, printing the miss ratio of each policy and size for an access
+ * trace recorded with the {@code traceFile} cache property.
+ * <p>
+ * This is not a unit test: run {@link #main(String[])} from the test classpath with the trace file, followed by
+ * options given as {@code --name value} pairs (defaults in parentheses):
+ * </p>
+ * <ul>
+ * <li>{@code --policy} comma-separated eviction policies, {@code lru} or {@code fifo} (lru);</li>
+ * <li>{@code --sizes} comma-separated cache sizes, in entries (100,1000,10000,100000);</li>
+ * <li>{@code --ttl} time to live of the entries in seconds, or 0 for no expiry (0).</li>
+ * </ul>
+ */
+public final class TraceSimulatorCli {
+
+  private static final long[] DEFAULT_SIZES = { 100, 1_000, 10_000, 100_000 };
+
+  private TraceSimulatorCli() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Simulates the trace given as first argument and prints the miss ratio of each policy and size.
+   *
+   * @param args
+   *          the trace file, followed by the optional {@code --policy}, {@code --sizes} and {@code --ttl} options
+   *
+   * @throws IOException
+   *           if the trace cannot be read
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0 || args.length % 2 == 0) {
+      System.err.println(
+          "Usage: TraceSimulatorCli <trace-file> [--policy lru,fifo] [--sizes 100,1000,10000] [--ttl seconds]");
+      System.exit(2);
+    }
+    String[] policies = { "lru" };
+    long[] sizes = DEFAULT_SIZES;
+    long ttlSeconds = 0;
+    for (int i = 1; i < args.length; i += 2) {
+      switch (args[i]) {
+        case "--policy":
+          policies = args[i + 1].split(",");
+          break;
+        case "--sizes":
+          String[] values = args[i + 1].split(",");
+          sizes = new long[values.length];
+          for (int j = 0; j < values.length; j++) {
+            sizes[j] = Long.parseLong(values[j].trim());
+          }
+          break;
+        case "--ttl":
+          ttlSeconds = Long.parseLong(args[i + 1]);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+    }
+    PrintStream out = System.out;
+    out.printf(Locale.ROOT, "%-6s %12s %12s %10s%n", "policy", "size", "lookups", "missRatio");
+    for (String policy : policies) {
+      for (TraceSimulator.Result result : TraceSimulator.simulate(Paths.get(args[0]), policy.trim(), sizes,
+          ttlSeconds)) {
+        out.printf(Locale.ROOT, "%-6s %12d %12d %10.4f%n", result.getPolicy(), result.getSize(), result.getLookups(),
+            result.getMissRatio());
+      }
+    }
+  }
+
+}